@@ -0,0 +1,230 @@
+/*
+ * Copyright (C) 2010 Douglas Teoh. Use is subject to license terms.
+ */
+package com.dteoh.treasuremap;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Properties;
+
+import javax.imageio.ImageIO;
+
+import org.jdesktop.application.IconAtlas;
+
+/**
+ * Build step that packs the small images in a resources directory into an
+ * {@link IconAtlas}, so that ResourceMaps load them with one image read
+ * instead of one per icon. Images in subdirectories are included, GIFs
+ * aren't, because they may be animated. The original images are left in
+ * place, resources that refer to them with an absolute path, or that are
+ * too large for the atlas, still use them.
+ * <p>
+ * Usage: <tt>java com.dteoh.treasuremap.IconAtlasBuilder resourcesDir
+ * [maxSize]</tt>
+ *
+ * @author Douglas Teoh
+ *
+ */
+public final class IconAtlasBuilder {
+
+    /** Default maximum width and height of the images that are packed. */
+    public static final int DEFAULT_MAX_SIZE = 64;
+    /** Maximum width of the atlas image. */
+    private static final int ATLAS_WIDTH = 1024;
+
+    /** An image to pack, and where it was packed. */
+    private static final class Entry {
+        final String path;
+        final BufferedImage image;
+        int x;
+        int y;
+
+        Entry(final String path, final BufferedImage image) {
+            this.path = path;
+            this.image = image;
+        }
+    }
+
+    private IconAtlasBuilder() {
+    }
+
+    /**
+     * Packs the images in resourcesDir that are at most
+     * {@link #DEFAULT_MAX_SIZE} pixels wide and high.
+     *
+     * @param resourcesDir
+     *            The resources directory.
+     * @return The number of images packed.
+     * @throws IOException
+     *             If an image can't be read, or the atlas can't be written.
+     * @see #build(File, int)
+     */
+    public static int build(final File resourcesDir) throws IOException {
+        return build(resourcesDir, DEFAULT_MAX_SIZE);
+    }
+
+    /**
+     * Packs the images in resourcesDir that are at most maxSize pixels wide
+     * and high into {@link IconAtlas#IMAGE_NAME} and
+     * {@link IconAtlas#INDEX_NAME} in resourcesDir. An existing atlas is
+     * replaced. If there are no images to pack, no atlas is written and an
+     * existing one is deleted.
+     *
+     * @param resourcesDir
+     *            The resources directory.
+     * @param maxSize
+     *            The maximum width and height of the images to pack.
+     * @return The number of images packed.
+     * @throws IOException
+     *             If an image can't be read, or the atlas can't be written.
+     * @throws IllegalArgumentException
+     *             If resourcesDir isn't a directory, or maxSize isn't
+     *             positive.
+     */
+    public static int build(final File resourcesDir, final int maxSize)
+            throws IOException {
+        if (!resourcesDir.isDirectory()) {
+            throw new IllegalArgumentException("not a directory: "
+                    + resourcesDir);
+        }
+        if ((maxSize <= 0) || (maxSize > ATLAS_WIDTH)) {
+            throw new IllegalArgumentException("invalid maxSize " + maxSize);
+        }
+        List<Entry> entries = new ArrayList<Entry>();
+        scan(resourcesDir, "", maxSize, entries);
+
+        File imageFile = new File(resourcesDir, IconAtlas.IMAGE_NAME);
+        File indexFile = new File(resourcesDir, IconAtlas.INDEX_NAME);
+        if (entries.isEmpty()) {
+            indexFile.delete();
+            imageFile.delete();
+            return 0;
+        }
+
+        int height = pack(entries);
+        int width = 0;
+        for (Entry e : entries) {
+            width = Math.max(width, e.x + e.image.getWidth());
+        }
+        BufferedImage atlas = new BufferedImage(width, height,
+                BufferedImage.TYPE_INT_ARGB);
+        Properties index = new Properties();
+        for (Entry e : entries) {
+            BufferedImage image = e.image;
+            int w = image.getWidth();
+            int h = image.getHeight();
+            atlas.setRGB(e.x, e.y, w, h, image.getRGB(0, 0, w, h, null, 0, w),
+                    0, w);
+            index.setProperty(e.path, e.x + ", " + e.y + ", " + w + ", " + h);
+        }
+
+        if (!ImageIO.write(atlas, "png", imageFile)) {
+            throw new IOException("no PNG writer");
+        }
+        OutputStream out = new FileOutputStream(indexFile);
+        try {
+            index.store(out, "Generated by " + IconAtlasBuilder.class.getName()
+                    + ", do not edit");
+        } finally {
+            out.close();
+        }
+        return entries.size();
+    }
+
+    /**
+     * Adds the images in dir, and its subdirectories, to entries.
+     */
+    private static void scan(final File dir, final String prefix,
+            final int maxSize, final List<Entry> entries) throws IOException {
+        File[] files = dir.listFiles();
+        if (files == null) {
+            throw new IOException("can't list " + dir);
+        }
+        for (File f : files) {
+            String path = prefix + f.getName();
+            if (f.isDirectory()) {
+                scan(f, path + "/", maxSize, entries);
+            } else if (isPackable(path)) {
+                BufferedImage image = ImageIO.read(f);
+                if (image == null) {
+                    throw new IOException("can't decode " + f);
+                }
+                if ((image.getWidth() <= maxSize)
+                        && (image.getHeight() <= maxSize)) {
+                    entries.add(new Entry(path, image));
+                }
+            }
+        }
+    }
+
+    private static boolean isPackable(final String path) {
+        // atlases of this or a nested resources directory
+        if (path.equals(IconAtlas.IMAGE_NAME)
+                || path.endsWith("/" + IconAtlas.IMAGE_NAME)) {
+            return false;
+        }
+        String p = path.toLowerCase(Locale.ENGLISH);
+        return p.endsWith(".png") || p.endsWith(".jpg")
+                || p.endsWith(".jpeg") || p.endsWith(".bmp");
+    }
+
+    /**
+     * Shelf packing: the images are sorted by decreasing height, then laid
+     * out left to right in rows that are as high as their first image.
+     *
+     * @return The height of the atlas.
+     */
+    private static int pack(final List<Entry> entries) {
+        Collections.sort(entries, new Comparator<Entry>() {
+            public int compare(final Entry a, final Entry b) {
+                int h = b.image.getHeight() - a.image.getHeight();
+                return (h != 0) ? h : a.path.compareTo(b.path);
+            }
+        });
+        int x = 0;
+        int y = 0;
+        int shelfHeight = 0;
+        for (Entry e : entries) {
+            if (x + e.image.getWidth() > ATLAS_WIDTH) {
+                x = 0;
+                y += shelfHeight;
+                shelfHeight = 0;
+            }
+            e.x = x;
+            e.y = y;
+            x += e.image.getWidth();
+            shelfHeight = Math.max(shelfHeight, e.image.getHeight());
+        }
+        return y + shelfHeight;
+    }
+
+    /**
+     * Command line entry point.
+     *
+     * @param args
+     *            The resources directory, and optionally the maximum image
+     *            size.
+     * @throws IOException
+     *             If the atlas can't be built.
+     */
+    public static void main(final String[] args) throws IOException {
+        if ((args.length < 1) || (args.length > 2)) {
+            System.err.println("usage: java " + IconAtlasBuilder.class.getName()
+                    + " resourcesDir [maxSize]");
+            System.exit(1);
+        }
+        int maxSize = (args.length > 1) ? Integer.parseInt(args[1])
+                : DEFAULT_MAX_SIZE;
+        int n = build(new File(args[0]), maxSize);
+        System.out.println("packed " + n + " images into "
+                + new File(args[0], IconAtlas.IMAGE_NAME));
+    }
+}
@@ -6,6 +6,8 @@ package com.dteoh.treasuremap;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Executor;
 
 import org.jdesktop.application.ResourceMap;
 
@@ -25,6 +27,10 @@ public final class ResourceMaps {
     private final List<String> bundleNames = new ArrayList<String>();
     /** Parent resource map. */
     private ResourceMap parent = null;
+    /** Executor for warming up built resource maps, or null. */
+    private Executor warmUpExecutor = null;
+    /** Resource types to warm up, by key suffix. */
+    private Map<String, Class<?>> warmUpTypes = ResourceMap.DEFAULT_WARM_UP_TYPES;
 
     /**
      * Creates a new resource map builder. Uses the default locale of the JVM.
@@ -90,13 +96,55 @@ public final class ResourceMaps {
         return this;
     }
 
+    /**
+     * Warms up resource maps when they are built, see
+     * {@link ResourceMap#warmUp(Executor)}. The result of the warm up is
+     * available from {@link ResourceMap#getWarmUp()}.
+     * 
+     * @param executor
+     *            Executor to run the warm up tasks with.
+     * @return this
+     */
+    public ResourceMaps withWarmUp(final Executor executor) {
+        return withWarmUp(executor, ResourceMap.DEFAULT_WARM_UP_TYPES);
+    }
+
+    /**
+     * Warms up resource maps when they are built, converting resources to
+     * the given types, see {@link ResourceMap#warmUp(Executor, Map)}.
+     * 
+     * @param executor
+     *            Executor to run the warm up tasks with.
+     * @param types
+     *            Resource types, by key suffix.
+     * @return this
+     */
+    public ResourceMaps withWarmUp(final Executor executor,
+            final Map<String, Class<?>> types) {
+        if (executor == null) {
+            throw new NullPointerException("Executor cannot be null.");
+        }
+        if (types == null) {
+            throw new NullPointerException("Types cannot be null.");
+        }
+        warmUpExecutor = executor;
+        warmUpTypes = types;
+        return this;
+    }
+
     /**
      * Creates a {@link ResourceMap} using the currently configured builder.
+     * If a warm up executor has been configured, the resource map's warm up
+     * is started before it is returned.
      * 
      * @return The newly created ResourceMap.
      */
     public ResourceMap build() {
-        return new ResourceMap(parent, cLoader, bundleNames);
+        ResourceMap map = new ResourceMap(parent, cLoader, bundleNames);
+        if (warmUpExecutor != null) {
+            map.warmUp(warmUpExecutor, warmUpTypes);
+        }
+        return map;
     }
 
     /**
@@ -0,0 +1,125 @@
+/*
+ * Copyright (C) 2010 Douglas Teoh. Use is subject to license terms.
+ */
+
+package org.jdesktop.application;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * An internal, immutable, compiled form of a resource value that contains
+ * <tt>${key}</tt> variables, for example "${hello} ${place}". The value is
+ * split once into literal segments and the names of the resources they
+ * refer to, so evaluating it again doesn't require scanning the string.
+ * <p>
+ * Escaped variables, "\${", become a literal "${". The special value
+ * "${null}" evaluates to null. A variable without a closing brace is
+ * reported when the template is evaluated, after the variables that
+ * precede it, the same way the original string scanning did.
+ *
+ * @see ResourceMap#getObject
+ */
+final class ExpressionTemplate {
+    private final String source;
+    private final String[] literals; // references.length + 1 segments
+    private final String[] references;
+    private final String error;
+    private final boolean nullValue;
+
+    private ExpressionTemplate(final String source, final List<String> literals,
+            final List<String> references, final String error) {
+        this.source = source;
+        this.literals = literals.toArray(new String[literals.size()]);
+        this.references = references.toArray(new String[references.size()]);
+        this.error = error;
+        nullValue = source.trim().equals("${null}");
+    }
+
+    /**
+     * Compiles an expression like "${hello} ${place}".
+     */
+    static ExpressionTemplate compile(final String expr) {
+        List<String> literals = new ArrayList<String>();
+        List<String> references = new ArrayList<String>();
+        StringBuilder literal = new StringBuilder();
+        String error = null;
+        int i0 = 0, i1 = 0;
+        while ((i1 = expr.indexOf("${", i0)) != -1) {
+            if ((i1 == 0) || (expr.charAt(i1 - 1) != '\\')) {
+                int i2 = expr.indexOf("}", i1);
+                if ((i2 != -1) && (i2 > i1 + 2)) {
+                    literal.append(expr, i0, i1);
+                    literals.add(literal.toString());
+                    literal.setLength(0);
+                    references.add(expr.substring(i1 + 2, i2));
+                    i0 = i2 + 1; // skip trailing "}"
+                } else {
+                    error = String.format("no closing brace in \"%s\"", expr);
+                    break;
+                }
+            } else { // we've found an escaped variable - "\${"
+                literal.append(expr, i0, i1 - 1);
+                literal.append("${");
+                i0 = i1 + 2; // skip past "${"
+            }
+        }
+        if (error == null) {
+            literal.append(expr, i0, expr.length());
+        }
+        literals.add(literal.toString());
+        return new ExpressionTemplate(expr, literals, references, error);
+    }
+
+    /**
+     * @return the expression this template was compiled from
+     */
+    String getSource() {
+        return source;
+    }
+
+    /**
+     * @return the names of the resources this template refers to, in order
+     */
+    List<String> getReferences() {
+        return Collections.unmodifiableList(Arrays.asList(references));
+    }
+
+    /**
+     * Evaluates this template, looking up the value of each variable with
+     * <tt>context.getString()</tt>.
+     *
+     * @throws ResourceMap.LookupException if a variable has no value or
+     *             doesn't have a closing brace
+     */
+    String evaluate(final ResourceMap context) {
+        if (nullValue) {
+            return null;
+        }
+        StringBuilder value = new StringBuilder(source.length() + 16);
+        for (int i = 0; i < references.length; i++) {
+            value.append(literals[i]);
+            String k = references[i];
+            String v = context.getString(k);
+            if (v == null) {
+                String msg = String.format("no value for \"%s\" in \"%s\"", k,
+                        source);
+                throw new ResourceMap.LookupException(msg, k, String.class);
+            }
+            value.append(v);
+        }
+        if (error != null) {
+            throw new ResourceMap.LookupException(error, "<not found>",
+                    String.class);
+        }
+        value.append(literals[references.length]);
+        return value.toString();
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getName() + "[" + source + "]";
+    }
+}
@@ -0,0 +1,264 @@
+/*
+ * Copyright (C) 2010 Douglas Teoh. Use is subject to license terms.
+ */
+
+package org.jdesktop.application;
+
+import java.io.IOException;
+import java.text.DecimalFormatSymbols;
+import java.util.ArrayList;
+import java.util.Formattable;
+import java.util.Formatter;
+import java.util.List;
+import java.util.Locale;
+import java.util.MissingFormatArgumentException;
+
+/**
+ * An internal, immutable, compiled form of a {@link String#format(String,
+ * Object...) format} string, for example "Hello %s". The format string is
+ * split once into literal segments and format specifiers. Plain
+ * <tt>%s</tt> and <tt>%d</tt> specifiers, <tt>%%</tt> and <tt>%n</tt> are
+ * written directly, all other specifiers are delegated to a
+ * {@link Formatter} that's created at most once per call. Output is
+ * written to an {@link Appendable}, so callers can render into an existing
+ * buffer.
+ * <p>
+ * Format strings that can't be compiled are passed to a Formatter as is,
+ * so they fail the same way they do with <tt>String.format</tt>.
+ *
+ * @see ResourceMap#getString
+ */
+final class FormatTemplate {
+    private static final String LINE_SEPARATOR = System
+            .getProperty("line.separator");
+    private static final String FLAGS = "-#+ 0,(<";
+
+    /* A format specifier. Index is the 1-based argument index, 0 for the
+     * next ordinary argument, or -1 for the previous argument ("%<s").
+     * Spec is the specifier without its argument index or '<' flag, so
+     * it can be applied to one argument, or null if it's a plain %s or %d.
+     */
+    private static final class Specifier {
+        final int index;
+        final char conversion;
+        final String spec;
+
+        Specifier(final int index, final char conversion, final String spec) {
+            this.index = index;
+            this.conversion = conversion;
+            this.spec = spec;
+        }
+    }
+
+    private final String source;
+    private final Object[] segments; // Strings and Specifiers, or null
+    private volatile Digits digits = null; // see asciiDigits()
+
+    private FormatTemplate(final String source, final Object[] segments) {
+        this.source = source;
+        this.segments = segments;
+    }
+
+    /**
+     * Compiles a format string like "Hello %s".
+     */
+    static FormatTemplate compile(final String format) {
+        List<Object> segments = new ArrayList<Object>();
+        StringBuilder literal = new StringBuilder();
+        int n = format.length();
+        int i0 = 0, i1 = 0;
+        while ((i1 = format.indexOf('%', i0)) != -1) {
+            literal.append(format, i0, i1);
+            int i = i1 + 1;
+            // argument index
+            int index = 0;
+            int j = i;
+            while ((j < n) && Character.isDigit(format.charAt(j))) {
+                j++;
+            }
+            if ((j > i) && (j < n) && (format.charAt(j) == '$')) {
+                try {
+                    index = Integer.parseInt(format.substring(i, j));
+                } catch (NumberFormatException e) {
+                    return new FormatTemplate(format, null);
+                }
+                if (index == 0) {
+                    return new FormatTemplate(format, null);
+                }
+                i = j + 1;
+            }
+            int specStart = i;
+            // flags
+            while ((i < n) && (FLAGS.indexOf(format.charAt(i)) != -1)) {
+                if (format.charAt(i) == '<') {
+                    index = -1;
+                }
+                i++;
+            }
+            // width and precision
+            while ((i < n) && Character.isDigit(format.charAt(i))) {
+                i++;
+            }
+            if ((i < n) && (format.charAt(i) == '.')) {
+                i++;
+                while ((i < n) && Character.isDigit(format.charAt(i))) {
+                    i++;
+                }
+            }
+            if (i >= n) {
+                return new FormatTemplate(format, null);
+            }
+            char conversion = format.charAt(i++);
+            if ((conversion == 't') || (conversion == 'T')) {
+                if (i >= n) {
+                    return new FormatTemplate(format, null);
+                }
+                i++;
+            }
+            boolean plain = (specStart == i - 1) && (index == 0);
+            if (plain && (conversion == '%')) {
+                literal.append('%');
+            } else if (plain && (conversion == 'n')) {
+                literal.append(LINE_SEPARATOR);
+            } else if ((conversion == '%') || (conversion == 'n')) {
+                return new FormatTemplate(format, null);
+            } else {
+                if (literal.length() > 0) {
+                    segments.add(literal.toString());
+                    literal.setLength(0);
+                }
+                String spec = (plain && ((conversion == 's') || (conversion == 'd'))) ? null
+                        : "%" + format.substring(specStart, i).replace("<", "");
+                segments.add(new Specifier(index, conversion, spec));
+            }
+            i0 = i;
+        }
+        literal.append(format, i0, n);
+        if (literal.length() > 0) {
+            segments.add(literal.toString());
+        }
+        return new FormatTemplate(format, segments.toArray());
+    }
+
+    /**
+     * @return the format string this template was compiled from
+     */
+    String getSource() {
+        return source;
+    }
+
+    /**
+     * Returns the format string applied to args, like
+     * <tt>String.format(locale, source, args)</tt>.
+     */
+    String format(final Locale locale, final Object[] args) {
+        StringBuilder sb = new StringBuilder(source.length() + 16 * args.length);
+        formatTo(sb, locale, args);
+        return sb.toString();
+    }
+
+    /**
+     * Appends the format string applied to args to sb.
+     */
+    void formatTo(final StringBuilder sb, final Locale locale,
+            final Object[] args) {
+        try {
+            formatTo((Appendable) sb, locale, args);
+        } catch (IOException e) {
+            throw new AssertionError(e); // StringBuilders don't throw
+        }
+    }
+
+    /**
+     * Appends the format string applied to args to out.
+     *
+     * @throws IOException if <tt>out</tt> does
+     * @throws java.util.IllegalFormatException if the format string or
+     *             arguments aren't valid, see {@link Formatter}
+     */
+    void formatTo(final Appendable out, final Locale locale,
+            final Object[] args) throws IOException {
+        if (segments == null) {
+            checkIOException(new Formatter(out, locale).format(source, args));
+            return;
+        }
+        Formatter formatter = null;
+        int ordinaryIndex = 0;
+        int lastIndex = -1;
+        for (Object segment : segments) {
+            if (segment instanceof String) {
+                out.append((String) segment);
+                continue;
+            }
+            Specifier s = (Specifier) segment;
+            int argIndex;
+            if (s.index == -1) {
+                argIndex = lastIndex;
+            } else if (s.index == 0) {
+                argIndex = ordinaryIndex++;
+            } else {
+                argIndex = s.index - 1;
+            }
+            if ((argIndex < 0) || (argIndex >= args.length)) {
+                throw new MissingFormatArgumentException((s.spec != null) ? s.spec
+                        : "%" + s.conversion);
+            }
+            lastIndex = argIndex;
+            Object arg = args[argIndex];
+            if ((s.spec == null) && (s.conversion == 's')
+                    && !(arg instanceof Formattable)) {
+                out.append(String.valueOf(arg));
+            } else if ((s.spec == null) && (s.conversion == 'd')
+                    && ((arg instanceof Integer) || (arg instanceof Long)
+                            || (arg instanceof Short) || (arg instanceof Byte))
+                    && asciiDigits(locale)) {
+                out.append(arg.toString());
+            } else {
+                if (formatter == null) {
+                    formatter = new Formatter(out, locale);
+                }
+                formatter.format((s.spec != null) ? s.spec : "%" + s.conversion, arg);
+                checkIOException(formatter);
+            }
+        }
+    }
+
+    private static void checkIOException(final Formatter formatter)
+            throws IOException {
+        IOException e = formatter.ioException();
+        if (e != null) {
+            throw e;
+        }
+    }
+
+    /* Whether a locale's digits are ASCII.  Immutable, so that the 
+     * locale and the result are always read together.
+     */
+    private static final class Digits {
+        final Locale locale;
+        final boolean ascii;
+
+        Digits(final Locale locale, final boolean ascii) {
+            this.locale = locale;
+            this.ascii = ascii;
+        }
+    }
+
+    /* Formatter localizes the digits of %d, so it's only safe to use
+     * Integer.toString() etc if the locale's zero digit is '0'.
+     */
+    private boolean asciiDigits(final Locale locale) {
+        Digits d = digits;
+        if ((d == null) || (d.locale != locale)) {
+            d = new Digits(locale,
+                    new DecimalFormatSymbols(locale).getZeroDigit() == '0');
+            digits = d;
+        }
+        return d.ascii;
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getName() + "[" + source + "]";
+    }
+}
@@ -0,0 +1,200 @@
+/*
+ * Copyright (C) 2010 Douglas Teoh. Use is subject to license terms.
+ */
+
+package org.jdesktop.application;
+
+import java.awt.Image;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.logging.Logger;
+
+import javax.swing.ImageIcon;
+
+import org.jdesktop.application.ResourceConverter.StringScanner;
+
+/**
+ * Many small icons packed into one image, so that they're loaded and
+ * decoded once, rather than one resource at a time. An atlas is a pair of
+ * files in a resources directory: {@link #IMAGE_NAME}, the packed image,
+ * and {@link #INDEX_NAME}, a properties file that maps the path of each
+ * icon, relative to the resources directory, to its bounds in the image:
+ *
+ * <pre>
+ * open.png = 0, 0, 16, 16
+ * toolbar/save.png = 16, 0, 16, 16
+ * </pre>
+ *
+ * If a resources directory has an atlas, the Icon and ImageIcon
+ * ResourceConverters return the icons it contains as views of the atlas
+ * image, without looking up the icon files themselves. Atlases are
+ * usually created by a build step, with
+ * <tt>com.dteoh.treasuremap.IconAtlasBuilder</tt>.
+ *
+ * @see ResourceMap#getIcon
+ */
+public final class IconAtlas {
+    /** The name of an atlas's index file. */
+    public static final String INDEX_NAME = "icon-atlas.properties";
+    /** The name of an atlas's image file. */
+    public static final String IMAGE_NAME = "icon-atlas.png";
+
+    private static final Logger logger = Logger.getLogger(IconAtlas.class
+            .getName());
+    private static final IconAtlas NONE = new IconAtlas(null,
+            Collections.<String, Rectangle> emptyMap());
+    private static final Map<ClassLoader, ConcurrentMap<String, IconAtlas>> atlases = new WeakHashMap<ClassLoader, ConcurrentMap<String, IconAtlas>>();
+
+    private final URL imageURL;
+    private final Map<String, Rectangle> bounds;
+    private volatile boolean imageFailed = false; // see getImage()
+
+    private IconAtlas(final URL imageURL, final Map<String, Rectangle> bounds) {
+        this.imageURL = imageURL;
+        this.bounds = bounds;
+    }
+
+    /**
+     * Returns the atlas for a resources directory, like
+     * "com/myapp/resources/". The index is read the first time a directory
+     * is asked for, directories that don't have an atlas are remembered
+     * too. The index is read without holding a lock, so threads that ask
+     * for the same new directory at once may all read it, the first one's
+     * atlas is kept.
+     */
+    static IconAtlas forDirectory(final ClassLoader classLoader,
+            final String resourcesDir) {
+        ConcurrentMap<String, IconAtlas> dirs;
+        synchronized (atlases) {
+            dirs = atlases.get(classLoader);
+            if (dirs == null) {
+                dirs = new ConcurrentHashMap<String, IconAtlas>();
+                atlases.put(classLoader, dirs);
+            }
+        }
+        IconAtlas atlas = dirs.get(resourcesDir);
+        if (atlas == null) {
+            atlas = load(classLoader, resourcesDir);
+            IconAtlas other = dirs.putIfAbsent(resourcesDir, atlas);
+            if (other != null) {
+                atlas = other;
+            }
+        }
+        return atlas;
+    }
+
+    private static IconAtlas load(final ClassLoader classLoader,
+            final String resourcesDir) {
+        URL indexURL = classLoader.getResource(resourcesDir + INDEX_NAME);
+        if (indexURL == null) {
+            return NONE;
+        }
+        URL imageURL = classLoader.getResource(resourcesDir + IMAGE_NAME);
+        if (imageURL == null) {
+            logger.warning("no " + IMAGE_NAME + " for " + indexURL);
+            return NONE;
+        }
+        Properties index = new Properties();
+        try {
+            InputStream in = indexURL.openStream();
+            try {
+                index.load(in);
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            logger.warning("couldn't read " + indexURL + ": " + e);
+            return NONE;
+        }
+        Map<String, Rectangle> bounds = new HashMap<String, Rectangle>();
+        for (Object key : index.keySet()) {
+            String path = (String) key;
+            String s = index.getProperty(path);
+            try {
+                StringScanner scanner = new StringScanner(s);
+                int x = nextInt(scanner, false);
+                int y = nextInt(scanner, false);
+                int width = nextInt(scanner, false);
+                int height = nextInt(scanner, true);
+                bounds.put(path, new Rectangle(x, y, width, height));
+            } catch (NumberFormatException e) {
+                logger.warning("invalid bounds \"" + s + "\" for " + path
+                        + " in " + indexURL);
+            }
+        }
+        return new IconAtlas(imageURL, bounds);
+    }
+
+    private static int nextInt(final StringScanner scanner, final boolean last) {
+        int value = scanner.skipWhitespace().nextInt();
+        scanner.skipWhitespace();
+        if (last) {
+            scanner.expectEnd();
+        } else {
+            scanner.expect(',');
+        }
+        return value;
+    }
+
+    /**
+     * Returns the icon at path, relative to the atlas's resources
+     * directory, or null if the atlas doesn't contain it. The icon's image
+     * is a view of the atlas image, which is loaded from the ImageCache.
+     */
+    ImageIcon getIcon(final String path) {
+        Rectangle r = bounds.get(path);
+        if (r == null) {
+            return null;
+        }
+        BufferedImage atlasImage = getImage();
+        if ((atlasImage == null)
+                || !new Rectangle(atlasImage.getWidth(), atlasImage
+                        .getHeight()).contains(r)) {
+            return null;
+        }
+        return new ImageIcon(atlasImage.getSubimage(r.x, r.y, r.width,
+                r.height), imageURL + "#" + path);
+    }
+
+    /**
+     * @return true if the atlas contains path
+     */
+    boolean contains(final String path) {
+        return bounds.containsKey(path);
+    }
+
+    /*
+     * The atlas image is loaded like any other image, through the
+     * ImageCache and its disk cache, so it counts against the cache's
+     * budget and is evicted with the other images when it's not in use.
+     * An image that can't be loaded is only tried once.
+     */
+    private BufferedImage getImage() {
+        if (imageFailed) {
+            return null;
+        }
+        Image image = ResourceMap.loadImageIcon(imageURL).getImage();
+        if (image instanceof BufferedImage) {
+            return (BufferedImage) image;
+        }
+        logger.warning("couldn't read " + imageURL);
+        imageFailed = true;
+        return null;
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getName() + "[" + imageURL + ", " + bounds.size()
+                + " icons]";
+    }
+}
@@ -0,0 +1,275 @@
+/*
+ * Copyright (C) 2010 Douglas Teoh. Use is subject to license terms.
+ */
+
+package org.jdesktop.application;
+
+import java.io.File;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.SoftReference;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+import javax.swing.ImageIcon;
+
+/**
+ * The process-wide cache of the images loaded by the Icon, ImageIcon and
+ * Image ResourceConverters. Images are keyed by their resolved URL, the
+ * ResourceMap's ClassLoader plus the resource path, so an image that's
+ * referred to by many ResourceMaps, or by many resources, is only decoded
+ * once.
+ * <p>
+ * The cache holds at most {@link #getMaxBytes} bytes of images, assuming 4
+ * bytes per pixel. When it's full, the least recently used images are
+ * evicted. The images are only softly referenced, so the garbage collector
+ * can also evict them when memory is low. Evicted images that are still in
+ * use stay valid, they're just loaded again by the next ResourceMap that
+ * needs them.
+ * <p>
+ * Decoded images can also be cached on disk, so that they don't have to be
+ * decoded again the next time the application starts, see
+ * {@link #setDiskCacheDirectory}.
+ *
+ * @see ResourceMap#getIcon
+ */
+public final class ImageCache {
+    private static final ImageCache instance = new ImageCache(Math.min(
+            64L << 20, Runtime.getRuntime().maxMemory() / 8));
+
+    private static final class Entry extends SoftReference<ImageIcon> {
+        final String url;
+        final long bytes;
+
+        Entry(final String url, final ImageIcon icon, final long bytes,
+                final ReferenceQueue<ImageIcon> queue) {
+            super(icon, queue);
+            this.url = url;
+            this.bytes = bytes;
+        }
+    }
+
+    // access ordered, so iteration starts with the least recently used
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<String, Entry>(
+            16, 0.75f, true);
+    private final ReferenceQueue<ImageIcon> queue = new ReferenceQueue<ImageIcon>();
+    private long maxBytes;
+    private long bytes = 0L;
+    private long hits = 0L;
+    private long misses = 0L;
+    private long evictions = 0L;
+    private volatile RasterFileCache diskCache = null;
+
+    private ImageCache(final long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * @return the cache that's shared by all ResourceMaps
+     */
+    public static ImageCache getInstance() {
+        return instance;
+    }
+
+    /**
+     * Returns the cached ImageIcon for url, or null.
+     */
+    synchronized ImageIcon get(final String url) {
+        expungeClearedEntries();
+        Entry entry = entries.get(url);
+        ImageIcon icon = (entry != null) ? entry.get() : null;
+        if (icon != null) {
+            hits += 1;
+        } else {
+            misses += 1;
+        }
+        return icon;
+    }
+
+    /**
+     * Returns the cached ImageIcon for url, or null, like {@link #get}, but
+     * without counting a hit or a miss. For callers that only check whether
+     * an image is already loaded, and load it later with get() if it isn't.
+     */
+    synchronized ImageIcon peek(final String url) {
+        expungeClearedEntries();
+        Entry entry = entries.get(url);
+        return (entry != null) ? entry.get() : null;
+    }
+
+    /**
+     * Adds the ImageIcon loaded from url, and evicts the least recently
+     * used images if the cache is over budget. Icons that are larger than
+     * the budget, or whose image couldn't be loaded, aren't added.
+     */
+    synchronized void put(final String url, final ImageIcon icon) {
+        expungeClearedEntries();
+        int width = icon.getIconWidth();
+        int height = icon.getIconHeight();
+        if ((width <= 0) || (height <= 0)) {
+            return;
+        }
+        long iconBytes = 4L * width * height;
+        if (iconBytes > maxBytes) {
+            return;
+        }
+        Entry oldEntry = entries.put(url, new Entry(url, icon, iconBytes,
+                queue));
+        if (oldEntry != null) {
+            bytes -= oldEntry.bytes;
+        }
+        bytes += iconBytes;
+        evict(maxBytes);
+    }
+
+    private void evict(final long budget) {
+        Iterator<Entry> iterator = entries.values().iterator();
+        while ((bytes > budget) && iterator.hasNext()) {
+            Entry entry = iterator.next();
+            iterator.remove();
+            bytes -= entry.bytes;
+            evictions += 1;
+        }
+    }
+
+    /*
+     * Removes the entries whose icons have been collected.
+     */
+    private void expungeClearedEntries() {
+        Object ref;
+        while ((ref = queue.poll()) != null) {
+            Entry entry = (Entry) ref;
+            if (entries.get(entry.url) == entry) {
+                entries.remove(entry.url);
+                bytes -= entry.bytes;
+                evictions += 1;
+            }
+        }
+    }
+
+    /**
+     * Sets the maximum number of bytes of images the cache holds, assuming 4
+     * bytes per pixel. If the cache already holds more than that, the least
+     * recently used images are evicted. A budget of 0 disables the cache.
+     *
+     * @param maxBytes the cache's budget
+     * @throws IllegalArgumentException if maxBytes is negative
+     */
+    public synchronized void setMaxBytes(final long maxBytes) {
+        if (maxBytes < 0) {
+            throw new IllegalArgumentException("negative maxBytes");
+        }
+        this.maxBytes = maxBytes;
+        evict(maxBytes);
+    }
+
+    /**
+     * The default budget is an eighth of the maximum heap size, up to 64MB.
+     *
+     * @return the maximum number of bytes of images the cache holds
+     * @see #setMaxBytes
+     */
+    public synchronized long getMaxBytes() {
+        return maxBytes;
+    }
+
+    /**
+     * @return the number of bytes of images the cache holds
+     */
+    public synchronized long getBytes() {
+        expungeClearedEntries();
+        return bytes;
+    }
+
+    /**
+     * @return the number of images the cache holds
+     */
+    public synchronized int size() {
+        expungeClearedEntries();
+        return entries.size();
+    }
+
+    /**
+     * @return the number of times an image was found in the cache
+     */
+    public synchronized long getHitCount() {
+        return hits;
+    }
+
+    /**
+     * @return the number of times an image had to be loaded
+     */
+    public synchronized long getMissCount() {
+        return misses;
+    }
+
+    /**
+     * @return the number of images that were evicted to stay within the
+     *         budget, or because they were garbage collected
+     */
+    public synchronized long getEvictionCount() {
+        expungeClearedEntries();
+        return evictions;
+    }
+
+    /**
+     * Removes all of the images from the cache. The counters aren't reset.
+     */
+    public synchronized void clear() {
+        entries.clear();
+        bytes = 0L;
+        while (queue.poll() != null) {
+            // entries that have been removed already
+        }
+    }
+
+    /**
+     * Sets the directory where decoded images are cached, or null to not
+     * cache them on disk, which is the default. The directory is created
+     * when the first image is cached. Cached images are identified by a
+     * hash of the image file's contents, so they're replaced automatically
+     * when the image files change. GIFs aren't cached on disk, because they
+     * may be animated.
+     * <p>
+     * The cache directory is never cleaned up, images that are no longer
+     * used stay there until the directory is deleted.
+     *
+     * @param directory the disk cache directory, or null
+     * @see #getDiskCacheDirectory
+     */
+    public void setDiskCacheDirectory(final File directory) {
+        diskCache = (directory != null) ? new RasterFileCache(directory)
+                : null;
+    }
+
+    /**
+     * @return the disk cache directory, or null
+     * @see #setDiskCacheDirectory
+     */
+    public File getDiskCacheDirectory() {
+        RasterFileCache dc = diskCache;
+        return (dc != null) ? dc.getDirectory() : null;
+    }
+
+    /**
+     * @return the number of images that were read from the current disk
+     *         cache directory rather than decoded
+     */
+    public long getDiskHitCount() {
+        RasterFileCache dc = diskCache;
+        return (dc != null) ? dc.getHitCount() : 0L;
+    }
+
+    /**
+     * @return the disk cache, or null
+     */
+    RasterFileCache getDiskCache() {
+        return diskCache;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return getClass().getName() + "[" + entries.size() + " images, "
+                + bytes + "/" + maxBytes + " bytes, " + hits + " hits, "
+                + misses + " misses, " + evictions + " evictions]";
+    }
+}
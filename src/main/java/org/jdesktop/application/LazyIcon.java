@@ -0,0 +1,151 @@
+/*
+ * Copyright (C) 2010 Douglas Teoh. Use is subject to license terms.
+ */
+
+package org.jdesktop.application;
+
+import java.awt.Component;
+import java.awt.Graphics;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.util.Iterator;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import javax.swing.Icon;
+import javax.swing.ImageIcon;
+
+/**
+ * An internal Icon that loads its image the first time it's painted. Until
+ * then, its size is read from the image file's header, which is much cheaper
+ * than decoding the image. If the header can't be read, the image is loaded
+ * right away.
+ * <p>
+ * The image is loaded with {@link ResourceMap#loadImageIcon(URL)}, so it's
+ * shared through the {@link ImageCache}.
+ *
+ * @see ResourceMap#setLazyIcons
+ */
+final class LazyIcon implements Icon {
+    private final URL url;
+    private volatile ImageIcon icon = null;
+    // set by readSize(), height first, so a width != -1 means both are set
+    private volatile int width = -1;
+    private volatile int height = -1;
+
+    private LazyIcon(final URL url) {
+        this.url = url;
+    }
+
+    /**
+     * Returns the image's ImageIcon if it's already in the ImageCache, a
+     * LazyIcon otherwise.
+     */
+    static Icon create(final URL url) {
+        ImageIcon cached = ImageCache.getInstance().peek(url.toExternalForm());
+        return (cached != null) ? cached : new LazyIcon(url);
+    }
+
+    /**
+     * @return true if the image has been loaded
+     */
+    boolean isLoaded() {
+        return icon != null;
+    }
+
+    /**
+     * Returns the image, and loads it if it hasn't been loaded yet.
+     */
+    ImageIcon getImageIcon() {
+        ImageIcon i = icon;
+        if (i == null) {
+            synchronized (this) {
+                i = icon;
+                if (i == null) {
+                    i = ResourceMap.loadImageIcon(url);
+                    icon = i;
+                }
+            }
+        }
+        return i;
+    }
+
+    public int getIconWidth() {
+        ImageIcon i = icon;
+        if (i != null) {
+            return i.getIconWidth();
+        }
+        readSize();
+        return width;
+    }
+
+    public int getIconHeight() {
+        ImageIcon i = icon;
+        if (i != null) {
+            return i.getIconHeight();
+        }
+        readSize();
+        return height;
+    }
+
+    public void paintIcon(final Component c, final Graphics g, final int x,
+            final int y) {
+        getImageIcon().paintIcon(c, g, x, y);
+    }
+
+    private void readSize() {
+        if (width != -1) {
+            return;
+        }
+        synchronized (this) {
+            if (width != -1) {
+                return;
+            }
+            try {
+                readHeader();
+            } catch (IOException e) {
+                // load the image instead
+            }
+            if (width == -1) {
+                ImageIcon i = getImageIcon();
+                height = i.getIconHeight();
+                width = i.getIconWidth();
+            }
+        }
+    }
+
+    private void readHeader() throws IOException {
+        InputStream stream = url.openStream();
+        try {
+            ImageInputStream in = ImageIO.createImageInputStream(stream);
+            if (in == null) {
+                return;
+            }
+            try {
+                Iterator<ImageReader> readers = ImageIO.getImageReaders(in);
+                if (readers.hasNext()) {
+                    ImageReader reader = readers.next();
+                    try {
+                        reader.setInput(in, true, true);
+                        height = reader.getHeight(0);
+                        width = reader.getWidth(0);
+                    } finally {
+                        reader.dispose();
+                    }
+                }
+            } finally {
+                in.close();
+            }
+        } finally {
+            stream.close();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getName() + "[" + url
+                + (isLoaded() ? ", loaded]" : "]");
+    }
+}
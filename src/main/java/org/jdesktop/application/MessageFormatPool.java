@@ -0,0 +1,124 @@
+/*
+ * Copyright (C) 2010 Douglas Teoh. Use is subject to license terms.
+ */
+
+package org.jdesktop.application;
+
+import java.io.IOException;
+import java.text.MessageFormat;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * An internal pool of {@link MessageFormat}s for one pattern and locale.
+ * MessageFormat isn't thread-safe, so each call borrows an instance (and
+ * the StringBuffer it formats into) from the pool and returns it when it's
+ * done. New instances are cloned from a prototype that's never used for
+ * formatting, so the pattern is only parsed once. At most
+ * {@link #MAX_IDLE} instances are kept.
+ *
+ * @see ResourceMap#format
+ */
+final class MessageFormatPool {
+    static final int MAX_IDLE = 2 * Runtime.getRuntime().availableProcessors();
+    private static final int MAX_BUFFER_CAPACITY = 1024;
+
+    private static final class Entry {
+        final MessageFormat format;
+        final StringBuffer buffer = new StringBuffer();
+
+        Entry(final MessageFormat format) {
+            this.format = format;
+        }
+    }
+
+    private final String pattern;
+    private final Locale locale;
+    private final MessageFormat prototype;
+    private final ConcurrentLinkedQueue<Entry> idle = new ConcurrentLinkedQueue<Entry>();
+    private final AtomicInteger idleCount = new AtomicInteger(0);
+
+    /**
+     * @throws IllegalArgumentException if the pattern is invalid
+     */
+    MessageFormatPool(final String pattern, final Locale locale) {
+        this.pattern = pattern;
+        this.locale = locale;
+        prototype = new MessageFormat(pattern, locale);
+    }
+
+    /**
+     * @return true if this pool formats <tt>pattern</tt> for
+     *         <tt>locale</tt>
+     */
+    boolean matches(final String pattern, final Locale locale) {
+        return this.pattern.equals(pattern) && this.locale.equals(locale);
+    }
+
+    /**
+     * Returns the pattern applied to args, like
+     * <tt>new MessageFormat(pattern, locale).format(args)</tt>.
+     */
+    String format(final Object[] args) {
+        Entry entry = borrow();
+        try {
+            return entry.format.format(args, entry.buffer, null).toString();
+        } finally {
+            release(entry);
+        }
+    }
+
+    /**
+     * Appends the pattern applied to args to sb.
+     */
+    void formatTo(final StringBuilder sb, final Object[] args) {
+        Entry entry = borrow();
+        try {
+            sb.append(entry.format.format(args, entry.buffer, null));
+        } finally {
+            release(entry);
+        }
+    }
+
+    /**
+     * Appends the pattern applied to args to out.
+     *
+     * @throws IOException if <tt>out</tt> does
+     */
+    void formatTo(final Appendable out, final Object[] args)
+            throws IOException {
+        Entry entry = borrow();
+        try {
+            out.append(entry.format.format(args, entry.buffer, null));
+        } finally {
+            release(entry);
+        }
+    }
+
+    private Entry borrow() {
+        Entry entry = idle.poll();
+        if (entry != null) {
+            idleCount.decrementAndGet();
+            return entry;
+        }
+        return new Entry((MessageFormat) prototype.clone());
+    }
+
+    private void release(final Entry entry) {
+        if (entry.buffer.capacity() > MAX_BUFFER_CAPACITY) {
+            return; // don't hold on to unusually large buffers
+        }
+        entry.buffer.setLength(0);
+        if (idleCount.incrementAndGet() <= MAX_IDLE) {
+            idle.offer(entry);
+        } else {
+            idleCount.decrementAndGet();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getName() + "[" + pattern + "," + locale + "]";
+    }
+}
@@ -0,0 +1,58 @@
+/*
+ * Copyright (C) 2010 Douglas Teoh. Use is subject to license terms.
+ */
+
+package org.jdesktop.application;
+
+/**
+ * An internal, immutable value class that holds the result of parsing a
+ * "marked" label string like "Save &amp;As": the label text, "Save As", the
+ * mnemonic key code, VK_A, and the index of the mnemonic character, 5. If the
+ * string doesn't contain a mnemonic marker, the key code is VK_UNDEFINED (0)
+ * and the index is -1.
+ * <p>
+ * MnemonicLabels are produced by a ResourceConverter and cached by
+ * ResourceMap like other converted values, so that injecting the same label
+ * text more than once doesn't require parsing it again.
+ *
+ * @see MnemonicText
+ */
+final class MnemonicLabel {
+    private final String text;
+    private final int mnemonicKey;
+    private final int mnemonicIndex;
+
+    MnemonicLabel(final String text, final int mnemonicKey,
+            final int mnemonicIndex) {
+        this.text = text;
+        this.mnemonicKey = mnemonicKey;
+        this.mnemonicIndex = mnemonicIndex;
+    }
+
+    /**
+     * @return the label text, without the mnemonic marker (can be null)
+     */
+    String getText() {
+        return text;
+    }
+
+    /**
+     * @return the mnemonic key code, or VK_UNDEFINED
+     */
+    int getMnemonicKey() {
+        return mnemonicKey;
+    }
+
+    /**
+     * @return the index of the mnemonic character in the text, or -1
+     */
+    int getMnemonicIndex() {
+        return mnemonicIndex;
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getName() + "[text=" + text + ",mnemonicKey="
+                + mnemonicKey + ",mnemonicIndex=" + mnemonicIndex + "]";
+    }
+}
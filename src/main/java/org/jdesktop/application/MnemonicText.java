@@ -7,7 +7,6 @@ package org.jdesktop.application;
 
 import java.awt.event.KeyEvent;
 import java.text.CharacterIterator;
-import java.text.StringCharacterIterator;
 
 import javax.swing.AbstractButton;
 import javax.swing.JLabel;
@@ -37,22 +36,16 @@ class MnemonicText {
     } // not used
 
     public static void configure(final Object target, final String markedText) {
-        String text = markedText;
-        int mnemonicIndex = -1;
-        int mnemonicKey = KeyEvent.VK_UNDEFINED;
-        // TBD: mnemonic marker char should be an application resource
-        int markerIndex = mnemonicMarkerIndex(markedText, '&');
-        if (markerIndex == -1) {
-            markerIndex = mnemonicMarkerIndex(markedText, '_');
-        }
-        if (markerIndex != -1) {
-            text = text.substring(0, markerIndex)
-                    + text.substring(markerIndex + 1);
-            mnemonicIndex = markerIndex;
-            CharacterIterator sci = new StringCharacterIterator(markedText,
-                    markerIndex);
-            mnemonicKey = mnemonicKey(sci.next());
-        }
+        configure(target, parse(markedText));
+    }
+
+    /**
+     * Configures target with a label that was produced by {@link #parse}.
+     */
+    public static void configure(final Object target, final MnemonicLabel label) {
+        String text = label.getText();
+        int mnemonicKey = label.getMnemonicKey();
+        int mnemonicIndex = label.getMnemonicIndex();
         if (target instanceof javax.swing.Action) {
             configureAction((javax.swing.Action) target, text, mnemonicKey,
                     mnemonicIndex);
@@ -67,28 +60,45 @@ class MnemonicText {
         }
     }
 
+    /**
+     * Parses markedText, for example "Save &amp;As", into a label text,
+     * mnemonic key code and mnemonic index. The result can be cached and
+     * applied to any number of targets with {@link #configure(Object,
+     * MnemonicLabel)}.
+     */
+    public static MnemonicLabel parse(final String markedText) {
+        // TBD: mnemonic marker char should be an application resource
+        int markerIndex = mnemonicMarkerIndex(markedText, '&');
+        if (markerIndex == -1) {
+            markerIndex = mnemonicMarkerIndex(markedText, '_');
+        }
+        if (markerIndex == -1) {
+            return new MnemonicLabel(markedText, KeyEvent.VK_UNDEFINED, -1);
+        }
+        StringBuilder text = new StringBuilder(markedText.length() - 1);
+        text.append(markedText, 0, markerIndex);
+        text.append(markedText, markerIndex + 1, markedText.length());
+        int mnemonicKey = mnemonicKey(markedText.charAt(markerIndex + 1));
+        return new MnemonicLabel(text.toString(), mnemonicKey, markerIndex);
+    }
+
     private static int mnemonicMarkerIndex(final String s, final char marker) {
         if ((s == null) || (s.length() < 2)) {
             return -1;
         }
-        CharacterIterator sci = new StringCharacterIterator(s);
+        int n = s.length();
         int i = 0;
-        while (i != -1) {
-            i = s.indexOf(marker, i);
-            if (i != -1) {
-                sci.setIndex(i);
-                char c1 = sci.previous();
-                sci.setIndex(i);
-                char c2 = sci.next();
+        while ((i = s.indexOf(marker, i)) != -1) {
+            if (i + 1 < n) {
+                char c1 = (i > 0) ? s.charAt(i - 1) : CharacterIterator.DONE;
+                char c2 = s.charAt(i + 1);
                 boolean isQuote = (c1 == '\'') && (c2 == '\'');
                 boolean isSpace = Character.isWhitespace(c2);
-                if (!isQuote && !isSpace && (c2 != CharacterIterator.DONE)) {
+                if (!isQuote && !isSpace) {
                     return i;
                 }
             }
-            if (i != -1) {
-                i += 1;
-            }
+            i += 1;
         }
         return -1;
     }
@@ -0,0 +1,262 @@
+/*
+ * Copyright (C) 2010 Douglas Teoh. Use is subject to license terms.
+ */
+
+package org.jdesktop.application;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.awt.image.DataBufferInt;
+import java.awt.image.DirectColorModel;
+import java.awt.image.Raster;
+import java.awt.image.WritableRaster;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.JarURLConnection;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.net.URLConnection;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.jar.JarEntry;
+
+import javax.imageio.ImageIO;
+
+/**
+ * An internal cache of decoded images in a directory. Each image is stored
+ * as an uncompressed ARGB raster in a file that's named after the SHA-1
+ * hash of the image's URL and a stamp of its contents: the size and last
+ * modified time of a file, or the size and CRC of a jar entry. A changed
+ * image file is simply cached again under a different name, without
+ * reading the image file when its raster is already cached. Images at
+ * other URLs are read and their contents hashed instead.
+ * <p>
+ * Cached rasters are read into an int array that's wrapped by the
+ * BufferedImage, which is much faster than decoding a PNG.
+ * <p>
+ * The cache is best effort: if a raster file can't be read or written the
+ * image is just decoded as usual.
+ * <p>
+ * File format: the magic number, width and height, as big-endian ints,
+ * then width * height ARGB ints, row by row.
+ *
+ * @see ImageCache#setDiskCacheDirectory
+ */
+final class RasterFileCache {
+    private static final int MAGIC = 0x544D4152; // "TMAR"
+    private static final int HEADER_BYTES = 12;
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private final File directory;
+    private final AtomicLong hits = new AtomicLong(0L);
+
+    RasterFileCache(final File directory) {
+        this.directory = directory;
+    }
+
+    File getDirectory() {
+        return directory;
+    }
+
+    long getHitCount() {
+        return hits.get();
+    }
+
+    /**
+     * Returns the image at url, from the cache if possible, otherwise
+     * decoded with ImageIO and added to the cache. Returns null if ImageIO
+     * can't decode the image.
+     *
+     * @throws IOException if the image file can't be read
+     */
+    BufferedImage read(final URL url) throws IOException {
+        byte[] bytes = null;
+        String stamp = stamp(url);
+        if (stamp == null) {
+            bytes = readFully(url);
+        }
+        String name = (stamp != null) ? sha1(utf8(url.toExternalForm() + "\n"
+                + stamp)) : sha1(bytes);
+        File file = new File(directory, name + ".argb");
+        if (file.isFile()) {
+            try {
+                BufferedImage image = readRaster(file);
+                hits.incrementAndGet();
+                return image;
+            } catch (IOException e) {
+                file.delete(); // corrupt or truncated, replace it
+            }
+        }
+        BufferedImage image = (bytes != null) ? ImageIO
+                .read(new ByteArrayInputStream(bytes)) : ImageIO.read(url);
+        if (image != null) {
+            try {
+                writeRaster(file, image);
+            } catch (IOException e) {
+                // the image just isn't cached
+            }
+        }
+        return image;
+    }
+
+    /*
+     * Returns a string that changes when the contents of url do, without
+     * reading them, or null if there isn't one for url.
+     */
+    private static String stamp(final URL url) {
+        try {
+            if ("file".equals(url.getProtocol())) {
+                File f = new File(url.toURI());
+                return f.isFile() ? f.length() + ":" + f.lastModified() : null;
+            } else if ("jar".equals(url.getProtocol())) {
+                URLConnection connection = url.openConnection();
+                if (connection instanceof JarURLConnection) {
+                    // the ClassLoader's cached JarFile, don't close it
+                    connection.setUseCaches(true);
+                    JarEntry entry = ((JarURLConnection) connection)
+                            .getJarEntry();
+                    if ((entry != null) && (entry.getCrc() != -1L)) {
+                        return entry.getSize() + ":"
+                                + Long.toHexString(entry.getCrc());
+                    }
+                }
+            }
+        } catch (IOException e) {
+            // read and hash the contents instead
+        } catch (URISyntaxException e) {
+            // same
+        } catch (IllegalArgumentException e) {
+            // same, the URL isn't a valid file URI
+        }
+        return null;
+    }
+
+    private static byte[] readFully(final URL url) throws IOException {
+        InputStream in = url.openStream();
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream(8192);
+            byte[] buffer = new byte[8192];
+            int n;
+            while ((n = in.read(buffer)) != -1) {
+                out.write(buffer, 0, n);
+            }
+            return out.toByteArray();
+        } finally {
+            in.close();
+        }
+    }
+
+    private static byte[] utf8(final String s) {
+        try {
+            return s.getBytes("UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new AssertionError(e); // every JRE has UTF-8
+        }
+    }
+
+    private static String sha1(final byte[] bytes) {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            throw new AssertionError(e); // every JRE has SHA-1
+        }
+        byte[] hash = digest.digest(bytes);
+        char[] hex = new char[2 * hash.length];
+        for (int i = 0; i < hash.length; i++) {
+            hex[2 * i] = HEX[(hash[i] >> 4) & 0xF];
+            hex[2 * i + 1] = HEX[hash[i] & 0xF];
+        }
+        return new String(hex);
+    }
+
+    /*
+     * The file is read, rather than memory mapped, because a mapped file
+     * can't be deleted on Windows until the mapping is garbage collected.
+     */
+    private static BufferedImage readRaster(final File file)
+            throws IOException {
+        FileInputStream in = new FileInputStream(file);
+        try {
+            FileChannel channel = in.getChannel();
+            ByteBuffer header = readFully(channel, HEADER_BYTES, file);
+            int magic = header.getInt();
+            int width = header.getInt();
+            int height = header.getInt();
+            if ((magic != MAGIC) || (width <= 0) || (height <= 0)
+                    || (channel.size() != HEADER_BYTES + 4L * width * height)) {
+                throw new IOException("invalid raster file " + file);
+            }
+            int[] pixels = new int[width * height];
+            readFully(channel, 4 * pixels.length, file).asIntBuffer().get(
+                    pixels);
+            DataBufferInt data = new DataBufferInt(pixels, pixels.length);
+            DirectColorModel cm = (DirectColorModel) ColorModel
+                    .getRGBdefault();
+            WritableRaster raster = Raster.createPackedRaster(data, width,
+                    height, width, cm.getMasks(), null);
+            return new BufferedImage(cm, raster, false, null);
+        } finally {
+            in.close();
+        }
+    }
+
+    private static ByteBuffer readFully(final FileChannel channel, final int n,
+            final File file) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(n);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer) == -1) {
+                throw new IOException("truncated raster file " + file);
+            }
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    /*
+     * Writes to a temporary file that's renamed when it's complete, so
+     * readers never see a partial raster.
+     */
+    private static void writeRaster(final File file, final BufferedImage image)
+            throws IOException {
+        File directory = file.getParentFile();
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("can't create " + directory);
+        }
+        int width = image.getWidth();
+        int height = image.getHeight();
+        int[] pixels = image.getRGB(0, 0, width, height, null, 0, width);
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_BYTES + 4 * pixels.length);
+        buffer.putInt(MAGIC).putInt(width).putInt(height);
+        IntBuffer intBuffer = buffer.asIntBuffer();
+        intBuffer.put(pixels);
+        buffer.rewind();
+        File tmp = File.createTempFile("raster", ".tmp", directory);
+        try {
+            FileOutputStream out = new FileOutputStream(tmp);
+            try {
+                FileChannel channel = out.getChannel();
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+            } finally {
+                out.close();
+            }
+            if (!tmp.renameTo(file) && !file.isFile()) {
+                throw new IOException("can't rename " + tmp + " to " + file);
+            }
+        } finally {
+            tmp.delete();
+        }
+    }
+}
@@ -6,14 +6,14 @@
 
 package org.jdesktop.application;
 
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
 import java.net.MalformedURLException;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.net.URL;
 import java.text.MessageFormat;
-import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * A base class for converting arbitrary types to and from Strings, as well as 
@@ -27,10 +27,11 @@ import java.util.List;
  * subclasses must override <tt>parseType()</tt> and, in most cases, the 
  * <tt>toString</tt> method as well.
  * <p>
- * This class maintains a registry of ResourceConverters.  
+ * This class maintains a thread-safe registry of ResourceConverters.  
  * The <tt>forType</tt> method returns the first ResourceConverter that 
  * supports a particular type, new ResourceConverters can be added with 
- * <tt>register()</tt>.  A small set of generic ResourceConverters are 
+ * <tt>register()</tt>.  ResourceMaps can also have their own converters,
+ * see {@link ResourceMap#registerConverter}.  A small set of generic ResourceConverters are 
  * registered by default.  They support the following types:
  * <ul>
  * <li><tt>Boolean</tt></li>
@@ -79,6 +80,126 @@ public abstract class ResourceConverter {
 	return type.equals(testType);
     }
 
+    /**
+     * Returns true if the values returned by <tt>parseString</tt> are
+     * immutable and only depend on the string, not the ResourceMap.
+     * ResourceMaps share the values of such converters: equal strings 
+     * are only converted once, and every ResourceMap gets the same 
+     * instance, for as long as it's in use somewhere.  The default
+     * is false.
+     * 
+     * @return true if equal strings can share one converted value
+     * @see ResourceMap#getObject
+     */
+    public boolean isImmutable() {
+        return false;
+    }
+
+    /* Returns parseString(s, r), or the value an equal string was 
+     * converted to before if this converter's values are immutable.
+     */
+    final Object parseCanonicalString(final String s, final ResourceMap r) throws ResourceConverterException {
+        if (!isImmutable()) {
+            return parseString(s, r);
+        }
+        Object value = canonicalValues.get(this, s);
+        if (value == null) {
+            value = canonicalValues.put(this, s, parseString(s, r));
+        }
+        return value;
+    }
+
+    /* A process-wide cache of immutable converted values, keyed by
+     * converter and string.  Values are only weakly referenced, 
+     * entries whose value has been collected are removed the next 
+     * time a value is added.  If two threads convert the same string
+     * at the same time, the first value to be added wins.
+     */
+    static final class CanonicalValues {
+        private static final class Key {
+            final ResourceConverter converter;
+            final String string;
+            Key(final ResourceConverter converter, final String string) {
+                this.converter = converter;
+                this.string = string;
+            }
+            @Override
+            public boolean equals(final Object o) {
+                if (!(o instanceof Key)) {
+                    return false;
+                }
+                Key k = (Key)o;
+                return (converter == k.converter) && string.equals(k.string);
+            }
+            @Override
+            public int hashCode() {
+                return 31 * System.identityHashCode(converter) + string.hashCode();
+            }
+        }
+
+        private static final class ValueReference extends WeakReference<Object> {
+            final Key key;
+            ValueReference(final Key key, final Object value, final ReferenceQueue<Object> queue) {
+                super(value, queue);
+                this.key = key;
+            }
+        }
+
+        private final ConcurrentHashMap<Key, ValueReference> values = new ConcurrentHashMap<Key, ValueReference>();
+        private final ReferenceQueue<Object> queue = new ReferenceQueue<Object>();
+
+        Object get(final ResourceConverter converter, final String s) {
+            ValueReference ref = values.get(new Key(converter, s));
+            return (ref == null) ? null : ref.get();
+        }
+
+        /* Adds value unless there's already a (live) value for s, 
+         * returns the value that's in the cache.
+         */
+        Object put(final ResourceConverter converter, final String s, final Object value) {
+            if (value == null) {
+                return null;
+            }
+            expungeStaleEntries();
+            Key key = new Key(converter, s);
+            ValueReference newRef = new ValueReference(key, value, queue);
+            while (true) {
+                ValueReference ref = values.putIfAbsent(key, newRef);
+                if (ref == null) {
+                    return value;
+                }
+                Object oldValue = ref.get();
+                if (oldValue != null) {
+                    return oldValue;
+                }
+                if (values.replace(key, ref, newRef)) {
+                    return value;
+                }
+            }
+        }
+
+        int size() {
+            expungeStaleEntries();
+            return values.size();
+        }
+
+        private void expungeStaleEntries() {
+            Object ref;
+            while ((ref = queue.poll()) != null) {
+                ValueReference vr = (ValueReference)ref;
+                values.remove(vr.key, vr);
+            }
+        }
+    }
+
+    private static final CanonicalValues canonicalValues = new CanonicalValues();
+
+    /* For testing: the number of canonical values in the cache.
+     */
+    static int canonicalValuesSize() {
+        return canonicalValues.size();
+    }
+
     public static class ResourceConverterException extends Exception {
 	private final String badString;
 	private String maybeShorten(final String s) {
@@ -105,23 +226,498 @@ public abstract class ResourceConverter {
 	}
     }
 
+    /**
+     * A cursor over a {@link CharSequence} that parses numbers in place,
+     * without creating substrings or boxing values.  The built-in
+     * ResourceConverters use it to parse strings like "#AARRGGBB" or 
+     * "x, y, width, height", and ResourceConverter subclasses can use it
+     * too:
+     * <pre>
+     * StringScanner scanner = new StringScanner(s);
+     * double x = scanner.skipWhitespace().nextDouble();
+     * scanner.skipWhitespace().expect(',');
+     * double y = scanner.skipWhitespace().nextDouble();
+     * scanner.skipWhitespace().expectEnd();
+     * </pre>
+     * None of the methods skip whitespace unless they say so.  Methods
+     * that fail throw a NumberFormatException and leave the position 
+     * where it was.
+     */
+    public static final class StringScanner {
+        private static final double[] DOUBLE_POWERS_OF_TEN = {
+            1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10,
+            1e11, 1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20,
+            1e21, 1e22
+        };
+        private static final float[] FLOAT_POWERS_OF_TEN = {
+            1e0f, 1e1f, 1e2f, 1e3f, 1e4f, 1e5f, 1e6f, 1e7f, 1e8f, 1e9f, 1e10f
+        };
+        private final CharSequence s;
+        private final int end;
+        private int position;
+        private int fractionDigits;  // set by decimalMantissa()
+
+        /**
+         * Creates a scanner for all of <tt>s</tt>.
+         */
+        public StringScanner(final CharSequence s) {
+            this(s, 0, (s == null) ? 0 : s.length());
+        }
+
+        /**
+         * Creates a scanner for the characters of <tt>s</tt> from 
+         * <tt>start</tt> (inclusive) to <tt>end</tt> (exclusive).
+         */
+        public StringScanner(final CharSequence s, final int start, final int end) {
+            if (s == null) {
+                throw new IllegalArgumentException("null CharSequence");
+            }
+            if ((start < 0) || (end > s.length()) || (start > end)) {
+                throw new IndexOutOfBoundsException("start " + start + ", end " + end);
+            }
+            this.s = s;
+            this.position = start;
+            this.end = end;
+        }
+
+        /**
+         * @return the index of the next character
+         */
+        public int getPosition() {
+            return position;
+        }
+
+        /**
+         * @return true if there are no more characters
+         */
+        public boolean atEnd() {
+            return position >= end;
+        }
+
+        /**
+         * Skips whitespace: characters less than or equal to ' ', like
+         * {@link String#trim}.
+         * @return this scanner
+         */
+        public StringScanner skipWhitespace() {
+            while ((position < end) && (s.charAt(position) <= ' ')) {
+                position++;
+            }
+            return this;
+        }
+
+        /**
+         * Skips the next character if it's <tt>c</tt>.
+         * @return true if the character was skipped
+         */
+        public boolean skip(final char c) {
+            if ((position < end) && (s.charAt(position) == c)) {
+                position++;
+                return true;
+            }
+            return false;
+        }
+
+        /**
+         * Skips the next character, which must be <tt>c</tt>.
+         * @throws NumberFormatException if the next character isn't <tt>c</tt>
+         */
+        public void expect(final char c) {
+            if (!skip(c)) {
+                throw error(position, "expected '" + c + "'");
+            }
+        }
+
+        /**
+         * @throws NumberFormatException if there are more characters
+         */
+        public void expectEnd() {
+            if (position < end) {
+                throw error(position, "unexpected character");
+            }
+        }
+
+        /**
+         * Parses an optionally signed integer in the specified radix, 
+         * like {@link Long#parseLong(String, int)}, that must be between
+         * <tt>min</tt> and <tt>max</tt>.  Parsing stops at the first 
+         * character that isn't a digit.
+         * @throws NumberFormatException if there are no digits or the 
+         *   value is out of range
+         */
+        public long nextLong(final int radix, final long min, final long max) {
+            int start = position;
+            boolean negative = false;
+            if ((position < end) && ((s.charAt(position) == '-') || (s.charAt(position) == '+'))) {
+                negative = s.charAt(position) == '-';
+                position++;
+            }
+            return nextMagnitude(start, radix, negative, min, max);
+        }
+
+        /**
+         * Parses an int in base 10, like {@link Integer#parseInt(String)}.
+         * @throws NumberFormatException if there are no digits or the 
+         *   value is out of range
+         */
+        public int nextInt() {
+            return (int)nextLong(10, Integer.MIN_VALUE, Integer.MAX_VALUE);
+        }
+
+        /**
+         * Parses an optionally signed decimal, hexadecimal, or octal 
+         * integer, like {@link Long#decode}, that must be between 
+         * <tt>min</tt> and <tt>max</tt>.  Hexadecimal numbers start 
+         * with "0x", "0X" or "#", octal numbers start with "0".
+         * @throws NumberFormatException if there are no digits or the 
+         *   value is out of range
+         */
+        public long nextDecodedLong(final long min, final long max) {
+            int start = position;
+            boolean negative = false;
+            if ((position < end) && ((s.charAt(position) == '-') || (s.charAt(position) == '+'))) {
+                negative = s.charAt(position) == '-';
+                position++;
+            }
+            int radix = 10;
+            if ((position + 1 < end) && (s.charAt(position) == '0') &&
+                ((s.charAt(position + 1) == 'x') || (s.charAt(position + 1) == 'X'))) {
+                radix = 16;
+                position += 2;
+            }
+            else if ((position < end) && (s.charAt(position) == '#')) {
+                radix = 16;
+                position += 1;
+            }
+            else if ((position + 1 < end) && (s.charAt(position) == '0')) {
+                radix = 8;
+                position += 1;
+            }
+            if ((position < end) && ((s.charAt(position) == '-') || (s.charAt(position) == '+'))) {
+                NumberFormatException e = error(start, "sign character in wrong position");
+                position = start;
+                throw e;
+            }
+            return nextMagnitude(start, radix, negative, min, max);
+        }
+
+        /* Accumulates the digits negatively, like Long.parseLong, so 
+         * that Long.MIN_VALUE can be parsed.
+         */
+        private long nextMagnitude(final int start, final int radix, final boolean negative, final long min, final long max) {
+            long limit = (negative) ? min : -max;
+            long multmin = limit / radix;
+            long result = 0L;
+            int digitsStart = position;
+            while (position < end) {
+                int digit = Character.digit(s.charAt(position), radix);
+                if (digit < 0) {
+                    break;
+                }
+                if ((result < multmin) || (result * radix < limit + digit)) {
+                    position = start;
+                    throw error(start, "value out of range");
+                }
+                result = result * radix - digit;
+                position++;
+            }
+            if (position == digitsStart) {
+                position = start;
+                throw error(start, "no digits");
+            }
+            return (negative) ? result : -result;
+        }
+
+        /**
+         * Parses exactly <tt>n</tt> hexadecimal digits, no sign or prefix.
+         * @throws NumberFormatException if there are fewer than <tt>n</tt>
+         *   hexadecimal digits
+         */
+        public int nextHex(final int n) {
+            if ((n < 1) || (n > 8)) {
+                throw new IllegalArgumentException("invalid number of digits: " + n);
+            }
+            int value = 0;
+            for (int i = 0; i < n; i++) {
+                int digit = (position + i < end) ? Character.digit(s.charAt(position + i), 16) : -1;
+                if (digit < 0) {
+                    throw error(position, "expected " + n + " hexadecimal digits");
+                }
+                value = (value << 4) | digit;
+            }
+            position += n;
+            return value;
+        }
+
+        /**
+         * Parses a double, like {@link Double#parseDouble}.  The number 
+         * ends at the first character that isn't a letter, digit, '.',
+         * '+' or '-'.  Plain decimal numbers with up to 15 significant
+         * digits are converted directly, everything else is delegated 
+         * to Double.parseDouble.
+         * @throws NumberFormatException if the number isn't valid
+         */
+        public double nextDouble() {
+            int start = position;
+            int tokenEnd = numberEnd();
+            long mantissa = decimalMantissa(start, tokenEnd, 15, DOUBLE_POWERS_OF_TEN.length - 1);
+            double value;
+            if (mantissa != -1L) {
+                value = mantissa / DOUBLE_POWERS_OF_TEN[fractionDigits];
+                if (s.charAt(start) == '-') {
+                    value = -value;
+                }
+            }
+            else {
+                try {
+                    value = Double.parseDouble(s.subSequence(start, tokenEnd).toString());
+                }
+                catch (NumberFormatException e) {
+                    throw error(start, "invalid double");
+                }
+            }
+            position = tokenEnd;
+            return value;
+        }
+
+        /**
+         * Parses a float, like {@link Float#parseFloat}.  See 
+         * {@link #nextDouble} for more information.
+         * @throws NumberFormatException if the number isn't valid
+         */
+        public float nextFloat() {
+            int start = position;
+            int tokenEnd = numberEnd();
+            long mantissa = decimalMantissa(start, tokenEnd, 7, FLOAT_POWERS_OF_TEN.length - 1);
+            float value;
+            if (mantissa != -1L) {
+                value = mantissa / FLOAT_POWERS_OF_TEN[fractionDigits];
+                if (s.charAt(start) == '-') {
+                    value = -value;
+                }
+            }
+            else {
+                try {
+                    value = Float.parseFloat(s.subSequence(start, tokenEnd).toString());
+                }
+                catch (NumberFormatException e) {
+                    throw error(start, "invalid float");
+                }
+            }
+            position = tokenEnd;
+            return value;
+        }
+
+        private int numberEnd() {
+            int i = position;
+            while (i < end) {
+                char c = s.charAt(i);
+                if (Character.isLetterOrDigit(c) || (c == '.') || (c == '+') || (c == '-')) {
+                    i++;
+                }
+                else {
+                    break;
+                }
+            }
+            return i;
+        }
+
+        /* If the characters from start to tokenEnd are a plain decimal 
+         * number, [sign]digits[.digits], with at most maxDigits
+         * significant digits and maxFractionDigits after the '.', 
+         * returns its digits as a long and sets fractionDigits.  Such 
+         * numbers are converted exactly by a single division.  Otherwise
+         * returns -1.
+         */
+        private long decimalMantissa(final int start, final int tokenEnd, final int maxDigits, final int maxFractionDigits) {
+            int i = start;
+            if ((i < tokenEnd) && ((s.charAt(i) == '-') || (s.charAt(i) == '+'))) {
+                i++;
+            }
+            long mantissa = 0L;
+            int digits = 0;
+            int significantDigits = 0;
+            int fraction = -1;
+            for (; i < tokenEnd; i++) {
+                char c = s.charAt(i);
+                if ((c >= '0') && (c <= '9')) {
+                    digits++;
+                    if (fraction != -1) {
+                        fraction++;
+                    }
+                    if ((mantissa != 0L) || (c != '0')) {
+                        significantDigits++;
+                    }
+                    mantissa = mantissa * 10 + (c - '0');
+                    if (significantDigits > maxDigits) {
+                        return -1L;
+                    }
+                }
+                else if ((c == '.') && (fraction == -1)) {
+                    fraction = 0;
+                }
+                else {
+                    return -1L;
+                }
+            }
+            if ((digits == 0) || (fraction > maxFractionDigits)) {
+                return -1L;
+            }
+            fractionDigits = (fraction == -1) ? 0 : fraction;
+            return mantissa;
+        }
+
+        private NumberFormatException error(final int start, final String msg) {
+            return new NumberFormatException(msg + ": \"" + s.subSequence(start, end) + "\"");
+        }
+    }
+
+    /**
+     * Adds a ResourceConverter to the registry.  Registration is thread-safe
+     * and invalidates the memoized results of {@link #forType}.
+     */
     public static void register(final ResourceConverter resourceConverter) {
 	if (resourceConverter == null) {
 	    throw new IllegalArgumentException("null resourceConverter");
 	}
-	resourceConverters.add(resourceConverter);
+	resourceConverters.register(resourceConverter);
+    }
+
+    /* Returns a number that changes each time a converter is registered
+     * globally, see ResourceMap.getResourcesStamp().
+     */
+    static int getRegistryGeneration() {
+        return resourceConverters.getGeneration();
     }
 
+    /**
+     * Returns the first registered ResourceConverter that supports
+     * <tt>type</tt>, or null.  The result is memoized per requested type,
+     * whichever <tt>supportsType</tt> rule matched it (for example a
+     * primitive type, a supertype, or an interface), so repeated lookups
+     * for the same type don't scan the registry.
+     */
     public static ResourceConverter forType(final Class type) {
 	if (type == null) {
 	    throw new IllegalArgumentException("null type");
 	}
-        for (ResourceConverter sc: resourceConverters) {
-            if (sc.supportsType(type)) {
-                return sc;
+        return resourceConverters.forType(type);
+    }
+
+    /* A thread-safe registry of ResourceConverters.  The converters
+     * are kept in an array that's copied each time a converter is
+     * registered, and forType() results are memoized per requested
+     * type.  Registering a converter replaces both, so lookups never
+     * see a memo that's out of date with respect to the array they
+     * were computed from.  Lookups don't lock, the memo is a 
+     * ConcurrentHashMap.  Its keys are weak, so that the global 
+     * registry doesn't keep application classes, and their 
+     * ClassLoaders, from being unloaded.  ResourceMap uses this class 
+     * for its own (scoped) converters too.
+     */
+    static final class Registry {
+        private static final Object NO_CONVERTER = new Object();
+
+        /* The memo's keys: a weakly referenced type, or a type that's
+         * being looked up.  They're equal if their types are the same.
+         */
+        private interface TypeKey {
+            Class<?> type();
+        }
+
+        private static final class LookupKey implements TypeKey {
+            private final Class<?> type;
+            LookupKey(final Class<?> type) {
+                this.type = type;
+            }
+            public Class<?> type() {
+                return type;
+            }
+            @Override
+            public boolean equals(final Object o) {
+                return (o instanceof TypeKey) && (type == ((TypeKey)o).type());
+            }
+            @Override
+            public int hashCode() {
+                return System.identityHashCode(type);
             }
         }
-	return null;
+
+        private static final class WeakTypeKey extends WeakReference<Class<?>> implements TypeKey {
+            private final int hash;
+            WeakTypeKey(final Class<?> type, final ReferenceQueue<Class<?>> queue) {
+                super(type, queue);
+                this.hash = System.identityHashCode(type);
+            }
+            public Class<?> type() {
+                return get();
+            }
+            @Override
+            public boolean equals(final Object o) {
+                if (o == this) {
+                    return true;
+                }
+                Class<?> type = get();
+                return (type != null) && (o instanceof TypeKey) && (type == ((TypeKey)o).type());
+            }
+            @Override
+            public int hashCode() {
+                return hash;
+            }
+        }
+
+        private static final class Converters {
+            final ResourceConverter[] array;
+            final ConcurrentHashMap<TypeKey, Object> forType = new ConcurrentHashMap<TypeKey, Object>();
+            final ReferenceQueue<Class<?>> queue = new ReferenceQueue<Class<?>>();
+            Converters(final ResourceConverter[] array) {
+                this.array = array;
+            }
+            void expungeStaleEntries() {
+                Object ref;
+                while ((ref = queue.poll()) != null) {
+                    forType.remove(ref);
+                }
+            }
+        }
+
+        private volatile Converters converters;
+        private volatile int generation = 0;
+
+        Registry(final ResourceConverter... resourceConverters) {
+            converters = new Converters(resourceConverters.clone());
+        }
+
+        synchronized void register(final ResourceConverter resourceConverter) {
+            ResourceConverter[] oldArray = converters.array;
+            ResourceConverter[] newArray = new ResourceConverter[oldArray.length + 1];
+            System.arraycopy(oldArray, 0, newArray, 0, oldArray.length);
+            newArray[oldArray.length] = resourceConverter;
+            converters = new Converters(newArray);
+            generation++;
+        }
+
+        /* Incremented each time a converter is registered. */
+        int getGeneration() {
+            return generation;
+        }
+
+        ResourceConverter forType(final Class<?> type) {
+            Converters c = converters;
+            Object rc = c.forType.get(new LookupKey(type));
+            if (rc == null) {
+                rc = NO_CONVERTER;
+                for (ResourceConverter sc : c.array) {
+                    if (sc.supportsType(type)) {
+                        rc = sc;
+                        break;
+                    }
+                }
+                c.expungeStaleEntries();
+                c.forType.put(new WeakTypeKey(type, c.queue), rc);
+            }
+            return (rc == NO_CONVERTER) ? null : (ResourceConverter)rc;
+        }
     }
 
     private static ResourceConverter[] resourceConvertersArray = {
@@ -136,8 +732,7 @@ public abstract class ResourceConverter {
 	new URLResourceConverter(),
 	new URIResourceConverter()
     };
-    private static List<ResourceConverter> resourceConverters = 
-	new ArrayList<ResourceConverter>(Arrays.asList(resourceConvertersArray));
+    private static final Registry resourceConverters = new Registry(resourceConvertersArray);
 
 
     private static class BooleanResourceConverter extends ResourceConverter {
@@ -147,10 +742,16 @@ public abstract class ResourceConverter {
 	    this.trueStrings = trueStrings;
 	}
 	@Override
-	public Object parseString(String s, final ResourceMap ignore) {
-	    s = s.trim();
+	public Object parseString(final String s, final ResourceMap ignore) {
+            int start = 0, end = s.length();
+            while ((start < end) && (s.charAt(start) <= ' ')) {
+                start++;
+            }
+            while ((end > start) && (s.charAt(end - 1) <= ' ')) {
+                end--;
+            }
 	    for(String trueString : trueStrings) {
-		if (s.equalsIgnoreCase(trueString)) {
+		if ((trueString.length() == end - start) && s.regionMatches(true, start, trueString, 0, end - start)) {
 		    return Boolean.TRUE;
 		}
 	    }
@@ -191,7 +792,10 @@ public abstract class ResourceConverter {
 	}
 	@Override
 	protected Number parseString(final String s) throws NumberFormatException {
-	    return Float.parseFloat(s);
+            StringScanner scanner = new StringScanner(s);
+            float value = scanner.skipWhitespace().nextFloat();
+            scanner.skipWhitespace().expectEnd();
+	    return value;
 	}
     }
 
@@ -201,24 +805,45 @@ public abstract class ResourceConverter {
 	}
 	@Override
 	protected Number parseString(final String s) throws NumberFormatException {
-	    return Double.parseDouble(s);
+            StringScanner scanner = new StringScanner(s);
+            double value = scanner.skipWhitespace().nextDouble();
+            scanner.skipWhitespace().expectEnd();
+	    return value;
 	}
     }
 
     private static abstract class INumberResourceConverter extends ResourceConverter {
 	private final Class primitiveType;
-	INumberResourceConverter(final Class type, final Class primitiveType) {
+        private final long min;
+        private final long max;
+	INumberResourceConverter(final Class type, final Class primitiveType, final long min, final long max) {
 	    super(type);
 	    this.primitiveType = primitiveType;
+            this.min = min;
+            this.max = max;
 	}
-	protected abstract Number parseString(String s, int radix) throws NumberFormatException;
+	protected abstract Number valueOf(long value);
 
+        /* The string is a number, decoded like Integer.decode(), or a 
+         * number, an ampersand, and a radix, like "ff&16".
+         */
 	@Override
 	public Object parseString(final String s, final ResourceMap ignore) throws ResourceConverterException {
 	    try {
-                String[] nar = s.split("&"); // number ampersand radix
-                int radix = (nar.length == 2) ? Integer.parseInt(nar[1]) : -1;
-                return parseString(nar[0], radix);
+                int end = s.indexOf('&');  // number ampersand radix
+                int radix = -1;
+                if (end == -1) {
+                    end = s.length();
+                }
+                else if (end + 1 < s.length()) {
+                    StringScanner radixScanner = new StringScanner(s, end + 1, s.length());
+                    radix = radixScanner.nextInt();
+                    radixScanner.expectEnd();
+                }
+                StringScanner scanner = new StringScanner(s, 0, end);
+                long value = (radix == -1) ? scanner.nextDecodedLong(min, max) : scanner.nextLong(radix, min, max);
+                scanner.expectEnd();
+                return valueOf(value);
             }
 	    catch (NumberFormatException e) {
 		throw new ResourceConverterException("invalid " + type.getSimpleName(), s, e);
@@ -232,41 +857,41 @@ public abstract class ResourceConverter {
 
     private static class ByteResourceConverter extends INumberResourceConverter {
 	ByteResourceConverter() {
-	    super(Byte.class, byte.class);
+	    super(Byte.class, byte.class, Byte.MIN_VALUE, Byte.MAX_VALUE);
 	}
 	@Override
-        protected Number parseString(final String s, final int radix) throws NumberFormatException {
-	    return (radix == -1) ? Byte.decode(s) : Byte.parseByte(s, radix);
+        protected Number valueOf(final long value) {
+	    return Byte.valueOf((byte)value);
 	}
     }
 
     private static class IntegerResourceConverter extends INumberResourceConverter {
 	IntegerResourceConverter() {
-	    super(Integer.class, int.class);
+	    super(Integer.class, int.class, Integer.MIN_VALUE, Integer.MAX_VALUE);
 	}
 	@Override
-        protected Number parseString(final String s, final int radix) throws NumberFormatException {
-	    return (radix == -1) ? Integer.decode(s) : Integer.parseInt(s, radix);
+        protected Number valueOf(final long value) {
+	    return Integer.valueOf((int)value);
 	}
     }
 
     private static class LongResourceConverter extends INumberResourceConverter {
 	LongResourceConverter() {
-	    super(Long.class, long.class);
+	    super(Long.class, long.class, Long.MIN_VALUE, Long.MAX_VALUE);
 	}
 	@Override
-        protected Number parseString(final String s, final int radix) throws NumberFormatException {
-	    return (radix == -1) ? Long.decode(s) : Long.parseLong(s, radix);
+        protected Number valueOf(final long value) {
+	    return Long.valueOf(value);
 	}
     }
 
     private static class ShortResourceConverter extends INumberResourceConverter {
         ShortResourceConverter() {
-	    super(Short.class, short.class);
+	    super(Short.class, short.class, Short.MIN_VALUE, Short.MAX_VALUE);
 	}
 	@Override
-        protected Number parseString(final String s, final int radix) throws NumberFormatException {
-	    return (radix == -1) ? Short.decode(s) : Short.parseShort(s, radix);
+        protected Number valueOf(final long value) {
+	    return Short.valueOf((short)value);
 	}
     }
 
@@ -274,6 +899,9 @@ public abstract class ResourceConverter {
 	MessageFormatResourceConverter() {
 	    super(MessageFormat.class);
 	}
+	/* The MessageFormat is cached and shared by ResourceMap, see 
+	 * ResourceMap.format() for a thread-safe alternative.
+	 */
 	@Override
 	public Object parseString(final String s, final ResourceMap ignore) {
 	    return new MessageFormat(s);
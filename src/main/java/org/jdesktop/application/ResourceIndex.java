@@ -0,0 +1,201 @@
+/*
+ * Copyright (C) 2010 Douglas Teoh. Use is subject to license terms.
+ */
+
+package org.jdesktop.application;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.ref.WeakReference;
+import java.net.JarURLConnection;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.net.URLConnection;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+
+/**
+ * An internal index of the resources in a ClassLoader's directories, used
+ * to resolve image paths without searching the class path every time.
+ * ClassLoader.getResource() looks in every jar and directory on the class
+ * path, in order, until it finds the resource, which is slow on long class
+ * paths, and slowest for resources that don't exist, like the "@2x"
+ * variants of most images.
+ * <p>
+ * The first time a resource in a directory is looked up, the directory is
+ * found with ClassLoader.getResources(), and the files in the first class
+ * path element that contains it are listed, from the jar file's entries or
+ * from the file system. After that, the resources in the directory are
+ * found with a map lookup.
+ * <p>
+ * Resources that aren't in the index, for example because they're in a
+ * later class path element, or the ClassLoader's URLs aren't jar or file
+ * URLs, are looked up with getResource(). Its result, including null, is
+ * remembered, so each missing resource is only searched for once.
+ * Consequently resources that are added to the class path after their
+ * directory was indexed aren't found.
+ * <p>
+ * A jar that has no directory entries isn't returned by getResources(), so
+ * a resource in such a jar is shadowed by the indexed one if the jar is
+ * earlier on the class path, unlike with getResource().
+ * <p>
+ * An index only refers to its ClassLoader weakly, so that the ClassLoader
+ * can be garbage collected.
+ */
+final class ResourceIndex {
+    private static final Map<ClassLoader, ResourceIndex> indexes = new WeakHashMap<ClassLoader, ResourceIndex>();
+    private static final Object NOT_FOUND = new Object();
+
+    private final WeakReference<ClassLoader> classLoader;
+    // directory, like "com/myapp/resources/", to its files' URLs by name
+    private final ConcurrentHashMap<String, Map<String, URL>> directories = new ConcurrentHashMap<String, Map<String, URL>>();
+    // path to URL or NOT_FOUND, for the resources that weren't indexed
+    private final ConcurrentHashMap<String, Object> searched = new ConcurrentHashMap<String, Object>();
+    private final AtomicLong searches = new AtomicLong(0L);
+
+    private ResourceIndex(final ClassLoader classLoader) {
+        this.classLoader = new WeakReference<ClassLoader>(classLoader);
+    }
+
+    /**
+     * @return the index that's shared by everything that uses classLoader
+     */
+    static ResourceIndex forClassLoader(final ClassLoader classLoader) {
+        synchronized (indexes) {
+            ResourceIndex index = indexes.get(classLoader);
+            if (index == null) {
+                index = new ResourceIndex(classLoader);
+                indexes.put(classLoader, index);
+            }
+            return index;
+        }
+    }
+
+    /**
+     * Equivalent to ClassLoader.getResource(path), for a path like
+     * "com/myapp/resources/open.png".
+     *
+     * @return the resource's URL, or null if there's no such resource
+     */
+    URL getResource(final String path) {
+        int slash = path.lastIndexOf('/');
+        if (slash == -1) {
+            return search(path); // not worth indexing the class path roots
+        }
+        String dir = path.substring(0, slash + 1);
+        Map<String, URL> files = directories.get(dir);
+        if (files == null) {
+            files = listDirectory(dir);
+            Map<String, URL> other = directories.putIfAbsent(dir, files);
+            if (other != null) {
+                files = other;
+            }
+        }
+        URL url = files.get(path.substring(slash + 1));
+        return (url != null) ? url : search(path);
+    }
+
+    private URL search(final String path) {
+        Object value = searched.get(path);
+        if (value == null) {
+            ClassLoader loader = classLoader.get();
+            if (loader == null) {
+                return null;
+            }
+            searches.incrementAndGet();
+            URL url = loader.getResource(path);
+            value = (url != null) ? url : NOT_FOUND;
+            searched.put(path, value);
+        }
+        return (value != NOT_FOUND) ? (URL) value : null;
+    }
+
+    /**
+     * @return the number of times the ClassLoader was searched because a
+     *         resource wasn't indexed
+     */
+    long getSearchCount() {
+        return searches.get();
+    }
+
+    /*
+     * Returns the files in dir, in the first class path element that
+     * contains it, by name. Files that are only in later elements may be
+     * shadowed by a jar without directory entries that's earlier than
+     * them, so they're left to search().
+     */
+    private Map<String, URL> listDirectory(final String dir) {
+        ClassLoader loader = classLoader.get();
+        if (loader == null) {
+            return Collections.emptyMap();
+        }
+        Map<String, URL> files = new HashMap<String, URL>();
+        try {
+            Enumeration<URL> urls = loader.getResources(dir);
+            if (urls.hasMoreElements()) {
+                URL dirURL = urls.nextElement();
+                if ("file".equals(dirURL.getProtocol())) {
+                    listFiles(dirURL, files);
+                } else if ("jar".equals(dirURL.getProtocol())) {
+                    listJarEntries(dirURL, files);
+                }
+            }
+        } catch (IOException e) {
+            return Collections.emptyMap(); // look everything up with search()
+        } catch (URISyntaxException e) {
+            return Collections.emptyMap(); // same
+        } catch (IllegalArgumentException e) {
+            return Collections.emptyMap(); // same, the URL isn't a valid file URI
+        }
+        return files;
+    }
+
+    private static void listFiles(final URL dirURL, final Map<String, URL> files)
+            throws IOException, URISyntaxException {
+        File[] children = new File(dirURL.toURI()).listFiles();
+        if (children == null) {
+            throw new IOException("can't list " + dirURL);
+        }
+        for (File child : children) {
+            if (child.isFile()) {
+                files.put(child.getName(), child.toURI().toURL());
+            }
+        }
+    }
+
+    private static void listJarEntries(final URL dirURL,
+            final Map<String, URL> files) throws IOException {
+        URLConnection connection = dirURL.openConnection();
+        if (!(connection instanceof JarURLConnection)) {
+            return;
+        }
+        JarURLConnection jarConnection = (JarURLConnection) connection;
+        // the same cached JarFile the ClassLoader uses, don't close it
+        jarConnection.setUseCaches(true);
+        JarFile jar = jarConnection.getJarFile();
+        String dir = jarConnection.getEntryName();
+        Enumeration<JarEntry> entries = jar.entries();
+        while (entries.hasMoreElements()) {
+            JarEntry entry = entries.nextElement();
+            String name = entry.getName();
+            if (!entry.isDirectory() && name.startsWith(dir)
+                    && (name.indexOf('/', dir.length()) == -1)) {
+                String fileName = name.substring(dir.length());
+                files.put(fileName, new URL(dirURL, fileName));
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getName() + "[" + directories.size()
+                + " directories, " + searched.size() + " searched]";
+    }
+}
@@ -7,47 +7,87 @@
 package org.jdesktop.application;
 
 import org.jdesktop.application.ResourceConverter.ResourceConverterException;
+import org.jdesktop.application.ResourceConverter.StringScanner;
 import java.awt.Color;
 import java.awt.Component;
 import java.awt.Container;
 import java.awt.Dimension;
 import java.awt.Event;
 import java.awt.Font;
+import java.awt.Graphics2D;
+import java.awt.GraphicsConfiguration;
+import java.awt.GraphicsEnvironment;
 import java.awt.Image;
 import java.awt.Insets;
 import java.awt.Point;
 import java.awt.Rectangle;
+import java.awt.RenderingHints;
 import java.awt.Toolkit;
+import java.awt.Transparency;
+import java.awt.event.ContainerEvent;
+import java.awt.event.ContainerListener;
+import java.awt.event.HierarchyEvent;
+import java.awt.event.HierarchyListener;
+import java.awt.image.BufferedImage;
 import java.beans.BeanInfo;
 import java.beans.IntrospectionException;
 import java.beans.Introspector;
 import java.beans.PropertyDescriptor;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.ref.WeakReference;
 import java.lang.reflect.Array;
 import java.lang.reflect.Field;
 import java.lang.reflect.Method;
 import java.net.URL;
+import java.text.MessageFormat;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.Enumeration;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.MissingResourceException;
 import java.util.ResourceBundle;
 import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Logger;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
 import javax.swing.AbstractButton;
 import javax.swing.Icon;
 import javax.swing.ImageIcon;
+import javax.swing.JComponent;
 import javax.swing.JLabel;
 import javax.swing.JMenu;
 import javax.swing.KeyStroke;
+import javax.swing.RepaintManager;
+import javax.swing.SwingUtilities;
 import javax.swing.border.EmptyBorder;
+import javax.swing.event.MenuEvent;
+import javax.swing.event.MenuListener;
 
 /**
  * A read-only encapsulation of one or more ResourceBundles that adds 
@@ -98,9 +138,42 @@ public class ResourceMap {
     private final List<String> bundleNames;
     private final String resourcesDir;
     private Map<String, Object> bundlesMapP = null; // see getBundlesMap()
-    private Locale locale = Locale.getDefault();    // ...
+    private volatile Locale locale = Locale.getDefault(); // ...
     private Set<String> bundlesMapKeysP = null;     // set getBundlesMapKeys()
-    private boolean bundlesLoaded = false;  // ResourceBundles are loaded lazily
+    private volatile boolean bundlesLoaded = false;  // ResourceBundles are loaded lazily
+    private final AtomicInteger generation = new AtomicInteger(0);  // see getResourcesStamp()
+    private Set<String> changedValueKeysP = Collections.emptySet(); // see getBundlesMap()
+    private Set<String> changedKeysP = null;        // see getChangedKeys()
+    private Map<String, List<String>> componentKeysP = null; // see getComponentKeys()
+    private Map<String, Object> injectedValuesP = null; // see reinjectComponents()
+    private final Map<String, List<WeakReference<Component>>> injectedComponents =
+        new HashMap<String, List<WeakReference<Component>>>();
+    private final ConcurrentHashMap<String, ConvertedValue> convertedValues =
+        new ConcurrentHashMap<String, ConvertedValue>(); // see getObject()
+    private final ConcurrentHashMap<ConversionKey, Conversion> conversions =
+        new ConcurrentHashMap<ConversionKey, Conversion>(); // see convert()
+    private final ContainerListener componentAttacher = new ComponentAttacher();
+    private final DeferredInjector deferredInjector = new DeferredInjector();
+    private volatile boolean lazyInjection = false;
+    private volatile boolean lazyIcons = false;
+    private volatile ResourceConverter.Registry converters = null; // see registerConverter()
+    private volatile Future<List<LookupException>> warmUp = null; // see warmUp()
+    private final boolean primitiveValuesEnabled = !overridesResourceMethods(getClass());
+    private final Map<String, PrimitiveValue> primitiveValues =
+        new ConcurrentHashMap<String, PrimitiveValue>(); // see getPrimitiveValue()
+    private final Map<String, ExpressionTemplate> expressionTemplates =
+        new ConcurrentHashMap<String, ExpressionTemplate>(); // see getExpressionTemplate()
+    private final Map<String, FormatTemplate> formatTemplates =
+        new ConcurrentHashMap<String, FormatTemplate>(); // see getFormatTemplate()
+    private final Map<String, MessageFormatPool> messageFormats =
+        new ConcurrentHashMap<String, MessageFormatPool>(); // see getMessageFormatPool()
+    private final ScaledIconCache scaledIcons = new ScaledIconCache(); // see getIcon(String, Dimension, double)
+    private final ConcurrentHashMap<String, ExpressionValue> expressionValues =
+        new ConcurrentHashMap<String, ExpressionValue>(); // see evaluateExpression()
+    private final ConcurrentHashMap<String, Set<String>> expressionDependents =
+        new ConcurrentHashMap<String, Set<String>>(); // referenced key => expression keys
+    private final List<WeakReference<ResourceMap>> children =
+        new CopyOnWriteArrayList<WeakReference<ResourceMap>>(); // see invalidateExpressions()
 
     /**
      * Creates a ResourceMap that contains all of the resources 
@@ -169,6 +242,9 @@ public class ResourceMap {
 	this.classLoader = classLoader;
 	this.bundleNames = Collections.unmodifiableList(new ArrayList<String>(bundleNames));
 	resourcesDir = bpn.replace(".", "/") + "/";
+        if (parent != null) {
+            parent.addChild(this);
+        }
     }
 
     private String bundlePackageName(final String bundleName) {
@@ -261,12 +337,46 @@ public class ResourceMap {
 		     */
 		}
 	    }
+            /* The bundlesMap only contains unevaluated, unconverted
+             * values, so comparing it with the previous one tells us
+             * which resources actually changed, see getChangedKeys.
+             */
+            Map<String, Object> previousValues = bundlesMapP;
             bundlesMapP = bundlesMap;
 	    bundlesLoaded = true;
+            generation.incrementAndGet();
+            expressionTemplates.clear();
+            formatTemplates.clear();
+            messageFormats.clear();
+            scaledIcons.clear();
+            if (previousValues != null) {
+                changedValueKeysP = changedValueKeys(previousValues, bundlesMap);
+                invalidateExpressions(changedValueKeysP);
+            }
+            changedKeysP = null;
+            bundlesMapKeysP = null;
+            componentKeysP = null;
+            convertedValues.clear();
 	}
 	return bundlesMapP;
     }
 
+    private static Set<String> changedValueKeys(final Map<String, Object> oldValues, final Map<String, Object> newValues) {
+        Set<String> keys = new HashSet<String>();
+        for (Map.Entry<String, Object> entry : newValues.entrySet()) {
+            Object oldValue = oldValues.get(entry.getKey());
+            if ((oldValue == null) || !oldValue.equals(entry.getValue())) {
+                keys.add(entry.getKey());
+            }
+        }
+        for (String key : oldValues.keySet()) {
+            if (!newValues.containsKey(key)) {
+                keys.add(key);
+            }
+        }
+        return keys;
+    }
+
     private void checkNullKey(final String key) {
 	if (key == null) {
 	    throw new IllegalArgumentException("null key");
@@ -274,6 +384,7 @@ public class ResourceMap {
     }
 
     private synchronized Set<String> getBundlesMapKeys() {
+        getBundlesMap();  // reset bundlesMapKeysP if the locale has changed
 	if (bundlesMapKeysP == null) {
 	    Set<String> allKeys = new HashSet<String>(getResourceKeySet());
 	    ResourceMap parent = getParent();
@@ -315,6 +426,71 @@ public class ResourceMap {
 	}
     }
 
+    /**
+     * Returns an unmodifiable {@link Set} of the keys whose values
+     * changed the last time this ResourceMap's ResourceBundles were
+     * reloaded because the default locale changed.  The set includes
+     * keys that were added or removed, keys that changed in a parent
+     * ResourceMap and aren't shadowed by this one, and
+     * <tt>${key}</tt> expressions that (recursively) refer to
+     * one of those keys.  If the ResourceBundles have only been
+     * loaded once, the set is empty.
+     * <p>
+     * Calling this method reloads the ResourceBundles if the default
+     * locale has changed since they were last loaded.
+     *
+     * @return the keys whose values changed when the locale last changed
+     * @see #reinjectComponents
+     * @see #keySet
+     */
+    public synchronized Set<String> getChangedKeys() {
+        getBundlesMap();  // reload if the locale has changed
+        if (changedKeysP == null) {
+            Set<String> changedKeys = new HashSet<String>(changedValueKeysP);
+            ResourceMap parent = getParent();
+            if (parent != null) {
+                for (String key : parent.getChangedKeys()) {
+                    if (!containsResourceKey(key)) {
+                        changedKeys.add(key);
+                    }
+                }
+            }
+            if (!changedKeys.isEmpty()) {
+                addChangedExpressionKeys(changedKeys);
+            }
+            changedKeysP = Collections.unmodifiableSet(changedKeys);
+        }
+        return changedKeysP;
+    }
+
+    /* Add the keys of ${key} expressions that refer, directly or
+     * indirectly, to one of the changedKeys.
+     */
+    private void addChangedExpressionKeys(final Set<String> changedKeys) {
+        Map<String, List<String>> expressionKeys = new HashMap<String, List<String>>();
+        for (String key : keySet()) {
+            Object value = getRawResource(key);
+            if ((value instanceof String) && ((String)value).contains("${")) {
+                expressionKeys.put(key, ExpressionTemplate.compile((String)value).getReferences());
+            }
+        }
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (Map.Entry<String, List<String>> entry : expressionKeys.entrySet()) {
+                if (!changedKeys.contains(entry.getKey())) {
+                    for (String reference : entry.getValue()) {
+                        if (changedKeys.contains(reference)) {
+                            changedKeys.add(entry.getKey());
+                            changed = true;
+                            break;
+                        }
+                    }
+                }
+            }
+        }
+    }
+
     /** 
      * Unchecked exception thrown by {@link #getObject} when resource lookup
      * fails, for example because string conversion fails.  This is
@@ -439,11 +615,14 @@ public class ResourceMap {
     }
 
     /**
-     * By default this method is used by {@code getObject} to cache
-     * values that have been retrieved, evaluated (as in ${key}
-     * expressions), and string converted.  A subclass could override
-     * this method to defeat caching or to refine the caching strategy.
-     * The {@code putResource} method lazily loads ResourceBundles.
+     * Sets the value of a resource in the internal representation of
+     * this ResourceMap's {@code ResourceBundles}.  The cached values of
+     * ${key} expressions that refer to {@code key}, here or in 
+     * ResourceMaps that have this one as an ancestor, are discarded. 
+     * {@code getObject} caches evaluated expressions and string 
+     * converted values separately, it doesn't replace a resource's
+     * String value.  The {@code putResource} method lazily loads 
+     * ResourceBundles.
      * <p>
      * The protected {@code getResource}, {@code putResource}, and 
      * {@code containsResourceKey}, {@code getResourceKeySet} abstract 
@@ -464,6 +643,66 @@ public class ResourceMap {
 	if (bundlesMap != null) {
 	    bundlesMap.put(key, (value == null) ? nullResource : value);
 	}
+        generation.incrementAndGet();
+        invalidateExpressions(Collections.singleton(key));
+    }
+
+    /**
+     * Registers a ResourceConverter that's only used by this ResourceMap
+     * and the ResourceMaps that have it as an ancestor.  Scoped converters
+     * take precedence over the ones registered globally with
+     * {@link ResourceConverter#register}, and converters registered with
+     * a child ResourceMap take precedence over its parent's, so
+     * a module can define or override the conversion of a type without
+     * affecting the rest of the application.  Resources that this 
+     * ResourceMap and its descendants have already converted to a
+     * type the converter supports are converted again, the next time
+     * they're looked up.
+     * 
+     * @param resourceConverter the converter to add
+     * @see #getConverter
+     * @throws IllegalArgumentException if <tt>resourceConverter</tt> is null
+     */
+    public void registerConverter(final ResourceConverter resourceConverter) {
+        if (resourceConverter == null) {
+            throw new IllegalArgumentException("null resourceConverter");
+        }
+        synchronized (this) {
+            if (converters == null) {
+                converters = new ResourceConverter.Registry();
+            }
+        }
+        converters.register(resourceConverter);
+        generation.incrementAndGet();
+        removeConvertedValues(resourceConverter);
+    }
+
+    /**
+     * Returns the ResourceConverter this ResourceMap uses to convert
+     * String resources to <tt>type</tt>: the first one registered with
+     * this ResourceMap or its ancestors, in that order, that supports
+     * <tt>type</tt>, or else {@code ResourceConverter.forType(type)}.
+     * 
+     * @param type the type to convert resources to
+     * @return the ResourceConverter for <tt>type</tt> or null
+     * @see #registerConverter
+     * @see ResourceConverter#forType
+     * @throws IllegalArgumentException if <tt>type</tt> is null
+     */
+    public ResourceConverter getConverter(final Class<?> type) {
+        if (type == null) {
+            throw new IllegalArgumentException("null type");
+        }
+        for (ResourceMap node = this; node != null; node = node.getParent()) {
+            ResourceConverter.Registry registry = node.converters;
+            if (registry != null) {
+                ResourceConverter rc = registry.forType(type);
+                if (rc != null) {
+                    return rc;
+                }
+            }
+        }
+        return ResourceConverter.forType(type);
     }
 
     /**
@@ -498,8 +737,14 @@ public class ResourceMap {
      * The value returned by getObject will be of the specified type.  If a
      * string valued resource exists for <tt>key</tt>, and <tt>type</tt> is not
      * String.class, the value will be converted using a
-     * ResourceConverter and the ResourceMap entry updated with the
-     * converted value.  
+     * ResourceConverter and the converted value cached for later calls
+     * with the same type.  The ResourceMap entry keeps its string value,
+     * so the same resource can also be looked up as another type.
+     * Values of immutable types, like Color and Font, are shared by
+     * all ResourceMaps: equal strings are converted to the same
+     * instance, see {@link ResourceConverter#isImmutable}.  Values of
+     * mutable types, like Dimension, are copied each time they're
+     * returned, unless they're shared by {@link #setValueSharing}.
      * <p>
      * If the named resource exists and an error occurs during lookup,
      * then a ResourceMap.LookupException is thrown.  This can 
@@ -517,7 +762,14 @@ public class ResourceMap {
      * @throws LookupException if an error occurs during lookup or string conversion
      * @throws IllegalArgumentException if <tt>key</tt> or <tt>type</tt> are null
      */
-    public Object getObject(final String key, Class type) {
+    public Object getObject(final String key, final Class type) {
+        return copyOnRead(getSharedObject(key, type));
+    }
+
+    /* Returns the value getObject() would return without copying it,
+     * so it must not be modified or handed out.
+     */
+    private Object getSharedObject(final String key, Class<?> type) {
 	checkNullKey(key);
 	if (type == null) {
 	    throw new IllegalArgumentException("null type");
@@ -532,6 +784,15 @@ public class ResourceMap {
             else if (type ==  Float.TYPE)    { type = Float.class; }
             else if (type ==  Double.TYPE)   { type = Double.class; }
         }
+        /* If we've already evaluated an expression for key, it's
+         * cached here and up to date, see evaluateExpression().
+         */
+        if ((type == String.class) && (getResourcesStamp() != -1)) {
+            ExpressionValue ev = expressionValues.get(key);
+            if (ev != null) {
+                return ev.value;
+            }
+        }
 	Object value = null;
 	ResourceMap resourceMapNode = this;
 	/* Find the ResourceMap bundlesMap that contains a non-null
@@ -546,32 +807,42 @@ public class ResourceMap {
 	    resourceMapNode = resourceMapNode.getParent();
 	}
 	/* If we've found a String expression then replace
-	 * any ${key} variables, and then reset the 
-	 * the original resourceMapNode entry.
+	 * any ${key} variables.  The result is cached by this
+         * ResourceMap, since the variables are looked up here,
+         * the resourceMapNode entry itself isn't changed.
 	 */
 	if ((value instanceof String) && ((String)value).contains("${")) {
-	    value = evaluateStringExpression((String)value);
-	    resourceMapNode.putResource(key, value);
+	    value = evaluateExpression(key, (String)value, resourceMapNode);
 	}
 	
 	/* If the value we've found in resourceMapNode is 
 	 * the expected type, then we're done.  If the expected
          * type is primitive and the value is the corresponding
          * object type then we're done too.  Otherwise, 
-	 * if it's a String, then try and convert the String
-	 * and replace the original resourceMapNode entry, 
-	 * otherwise return null.
+	 * if it's a String, then try and convert the String.
+         * The String itself stays in resourceMapNode, converted
+         * values are cached beside it, one per requested type, 
+         * so the same resource can be looked up as a String and,
+         * say, a MessageFormat.
 	 */
 	if (value != null) {
 	    Class valueClass = value.getClass();
 	    if (!type.isAssignableFrom(valueClass)) {
 		if (value instanceof String) {
-		    ResourceConverter stringConverter = ResourceConverter.forType(type);
+		    String sValue = (String)value;
+		    ResourceConverter stringConverter = getConverter(type);
 		    if (stringConverter != null) {
-			String sValue = (String)value;
+                        /* The converter may be scoped to this ResourceMap,
+                         * so it's part of the cached value's identity, 
+                         * resourceMapNode's other descendants may use 
+                         * another one.
+                         */
+                        ConvertedValue cv = resourceMapNode.getConvertedValue(key, type, stringConverter, sValue);
+                        if (cv != null) {
+                            return cv.value;
+                        }
 			try {
-			    value = stringConverter.parseString(sValue, resourceMapNode);
-			    resourceMapNode.putResource(key, value);
+			    value = resourceMapNode.convert(key, type, sValue, stringConverter);
 			}
 			catch (ResourceConverterException e) {
 			    String msg = "string conversion failed";
@@ -594,204 +865,1764 @@ public class ResourceMap {
 	return value;
     }
 
-    /* Given the following resources:
-     * 
-     * hello = Hello
-     * world = World
-     * place = ${world}
-     * 
-     * The value of evaluateStringExpression("${hello} ${place}")
-     * would be "Hello World".  The value of ${null} is null.
-     */
-    private String evaluateStringExpression(final String expr) {
-	if (expr.trim().equals("${null}")) {
-	    return null;
-	}
-	StringBuffer value = new StringBuffer();
-	int i0 = 0, i1 = 0;
-	while((i1 = expr.indexOf("${", i0)) != -1) {
-	    if ((i1 == 0) || ((i1 > 0) && (expr.charAt(i1-1) != '\\'))) {
-		int i2 = expr.indexOf("}", i1);
-		if ((i2 != -1) && (i2 > i1+2)) {
-		    String k = expr.substring(i1+2, i2);
-		    String v = getString(k);
-		    value.append(expr.substring(i0, i1));
-		    if (v != null) {
-			value.append(v);
-		    }
-		    else {
-			String msg = String.format("no value for \"%s\" in \"%s\"", k, expr);
-			throw new LookupException(msg, k, String.class);
-		    }
-		    i0 = i2 + 1;  // skip trailing "}"
-		}
-		else {
-		    String msg = String.format("no closing brace in \"%s\"", expr);
-		    throw new LookupException(msg, "<not found>", String.class);
-		}
-	    }
-	    else {  // we've found an escaped variable - "\${"
-		value.append(expr.substring(i0, i1-1));
-		value.append("${");
-		i0 = i1 + 2; // skip past "${"
-	    }
-	}
-	value.append(expr.substring(i0));
-	return value.toString();
-    }
-		    
-    /** 
-     * If no arguments are specified, return the String value
-     * of the resource named <tt>key</tt>.  This is 
-     * equivalent to calling <tt>getObject(key, String.class)</tt>
-     * If arguments are provided, then the type of the resource
-     * named <tt>key</tt> is assumed to be 
-     * {@link String#format(String, Object...) format} string, 
-     * which is applied to the arguments if it's non null.  
-     * For example, given the following resources
-     * <pre>
-     * hello = Hello %s
-     * </pre>
-     * then the value of <tt>getString("hello", "World")</tt> would
-     * be <tt>"Hello World"</tt>.
+    /**
+     * How the values of a mutable type are shared with the callers of 
+     * {@link ResourceMap#getObject}.
      * 
-     * @return the String value of the resource named <tt>key</tt> 
-     * @throws LookupException if an error occurs during lookup or string conversion
-     * @throws IllegalArgumentException if <tt>key</tt> is null
-     * @see #getObject
-     * @see String#format(String, Object...)
+     * @see #setValueSharing
      */
-    public String getString(final String key, final Object... args) {
-	if (args.length == 0) {
-	    return (String)getObject(key, String.class);
-	}
-	else {
-	    String format = (String)getObject(key, String.class);
-	    return (format == null) ? null : String.format(format, args);
-	}
+    public enum ValueSharing {
+        /**
+         * Every caller gets the same (cached) instance.  It must not be
+         * modified.
+         */
+        SHARED, 
+        /**
+         * Every caller gets its own copy of the cached instance.
+         */
+        COPY_ON_READ
     }
 
-    /** 
-     * A convenience method that's shorthand for calling:
-     * <tt>getObject(key, Boolean.class)</tt>.  
-     * 
-     * @param key the name of the resource
-     * @throws LookupException if an error occurs during lookup or string conversion
-     * @throws IllegalArgumentException if <tt>key</tt> is null
-     * @return the Boolean value of the resource named key
-     * @see #getObject
+    /* The mutable types that are copied on read by default.
      */
-    public final Boolean getBoolean(final String key) { 
-	return (Boolean)getObject(key, Boolean.class); 
-    }
+    private static final Class<?>[] copyableTypes = {
+        Dimension.class, Point.class, Rectangle.class, Insets.class
+    };
+    private final Map<Class<?>, ValueSharing> valueSharing = new ConcurrentHashMap<Class<?>, ValueSharing>();
 
-    /** 
-     * A convenience method that's shorthand for calling:
-     * <tt>getObject(key, Integer.class)</tt>.  
+    /**
+     * Sets how values of <tt>type</tt> are returned by 
+     * <tt>getObject</tt> and the methods built on it, like 
+     * {@link #getDimension}.  The mutable types Dimension, Point,
+     * Rectangle and Insets are copied on read by default, so changing
+     * the value one caller gets doesn't affect anyone else.  
+     * Applications that only read these values can share them 
+     * instead, or read their fields with {@link #getWidth} and 
+     * {@link #getHeight}.  Other types are always shared.
+     * <p>
+     * The setting applies to values looked up with this ResourceMap,
+     * including those inherited from its parents.
      * 
-     * @param key the name of the resource
-     * @throws LookupException if an error occurs during lookup or string conversion
-     * @throws IllegalArgumentException if <tt>key</tt> is null
-     * @return the Integer value of the resource named key
-     * @see #getObject
+     * @param type Dimension, Point, Rectangle or Insets
+     * @param sharing how values of <tt>type</tt> are shared
+     * @throws IllegalArgumentException if <tt>type</tt> isn't one of the
+     *   types listed above or <tt>sharing</tt> is null
+     * @see #getValueSharing
      */
-    public final Integer getInteger(final String key) { 
-	return (Integer)getObject(key, Integer.class); 
+    public void setValueSharing(final Class<?> type, final ValueSharing sharing) {
+        if (sharing == null) {
+            throw new IllegalArgumentException("null sharing");
+        }
+        if (!isCopyableType(type)) {
+            throw new IllegalArgumentException("can't copy values of " + type);
+        }
+        valueSharing.put(type, sharing);
     }
 
-    /** 
-     * A convenience method that's shorthand for calling:
-     * <tt>getObject(key, Long.class)</tt>.  
+    /**
+     * Returns how values of <tt>type</tt> are returned by 
+     * <tt>getObject</tt>.
      * 
-     * @param key the name of the resource
-     * @throws LookupException if an error occurs during lookup or string conversion
-     * @throws IllegalArgumentException if <tt>key</tt> is null
-     * @return the Long value of the resource named key
-     * @see #getObject
+     * @param type the type of a resource value
+     * @return <tt>COPY_ON_READ</tt> for Dimension, Point, Rectangle and 
+     *   Insets unless they've been changed with <tt>setValueSharing</tt>,
+     *   <tt>SHARED</tt> otherwise
+     * @see #setValueSharing
      */
-    public final Long getLong(final String key) { 
-	return (Long)getObject(key, Long.class); 
+    public ValueSharing getValueSharing(final Class<?> type) {
+        ValueSharing sharing = valueSharing.get(type);
+        if (sharing == null) {
+            sharing = isCopyableType(type) ? ValueSharing.COPY_ON_READ : ValueSharing.SHARED;
+        }
+        return sharing;
     }
 
-    /** 
-     * A convenience method that's shorthand for calling:
-     * <tt>getObject(key, Short.class)</tt>.  
-     * 
-     * @param key the name of the resource
-     * @throws LookupException if an error occurs during lookup or string conversion
-     * @throws IllegalArgumentException if <tt>key</tt> is null
-     * @return the Short value of the resource named key
-     * @see #getObject
+    private static boolean isCopyableType(final Class<?> type) {
+        for (Class<?> c : copyableTypes) {
+            if (c.equals(type)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /* Returns a copy of value if it's one of the copyableTypes, and 
+     * the type isn't shared.  Subclasses are copied with clone(), 
+     * so they stay the same type.
      */
-    public final Short getShort(final String key) { 
-	return (Short)getObject(key, Short.class); 
+    private Object copyOnRead(final Object value) {
+        if (value instanceof Dimension) {
+            return (getValueSharing(Dimension.class) == ValueSharing.SHARED) ? value : ((Dimension)value).clone();
+        }
+        else if (value instanceof Point) {
+            return (getValueSharing(Point.class) == ValueSharing.SHARED) ? value : ((Point)value).clone();
+        }
+        else if (value instanceof Rectangle) {
+            return (getValueSharing(Rectangle.class) == ValueSharing.SHARED) ? value : ((Rectangle)value).clone();
+        }
+        else if (value instanceof Insets) {
+            return (getValueSharing(Insets.class) == ValueSharing.SHARED) ? value : ((Insets)value).clone();
+        }
+        return value;
     }
-    
-    /** 
-     * A convenience method that's shorthand for calling:
-     * <tt>getObject(key, Byte.class)</tt>.  
-     * 
-     * @param key the name of the resource
-     * @throws LookupException if an error occurs during lookup or string conversion
-     * @throws IllegalArgumentException if <tt>key</tt> is null
-     * @return the Byte value of the resource named key
-     * @see #getObject
+
+    /* The string conversions of a resource's value, one per type and
+     * converter, in a short immutable list.  The String each value was 
+     * converted from is kept so that a cached conversion is only used 
+     * if the resource still has the same value, e.g. if a subclass's
+     * getResource() doesn't return what putResource() stored.
      */
-    public final Byte getByte(final String key) { 
-	return (Byte)getObject(key, Byte.class); 
+    private static final class ConvertedValue {
+        final Class<?> type;
+        final ResourceConverter converter;
+        final String string;
+        final Object value;
+        final ConvertedValue next;
+        ConvertedValue(Class<?> type, ResourceConverter converter, String string, Object value, ConvertedValue next) {
+            this.type = type;
+            this.converter = converter;
+            this.string = string;
+            this.value = value;
+            this.next = next;
+        }
     }
 
-    /** 
-     * A convenience method that's shorthand for calling:
-     * <tt>getObject(key, Float.class)</tt>.  
-     * 
-     * @param key the name of the resource
-     * @throws LookupException if an error occurs during lookup or string conversion
-     * @throws IllegalArgumentException if <tt>key</tt> is null
-     * @return the Float value of the resource named key
-     * @see #getObject
+    private ConvertedValue getConvertedValue(final String key, final Class<?> type, 
+                                             final ResourceConverter converter, final String string) {
+        for (ConvertedValue cv = convertedValues.get(key); cv != null; cv = cv.next) {
+            if ((cv.type == type) && (cv.converter == converter) && cv.string.equals(string)) {
+                return cv;
+            }
+        }
+        return null;
+    }
+
+    /* Removes the cached conversions that converter would now be used
+     * for, in this ResourceMap and its descendants, see registerConverter().
      */
-    public final Float getFloat(final String key) { 
-	return (Float)getObject(key, Float.class); 
+    private void removeConvertedValues(final ResourceConverter converter) {
+        for (Map.Entry<String, ConvertedValue> entry : convertedValues.entrySet()) {
+            ConvertedValue head = null;
+            boolean removed = false;
+            for (ConvertedValue cv = entry.getValue(); cv != null; cv = cv.next) {
+                if (converter.supportsType(cv.type)) {
+                    removed = true;
+                }
+                else {
+                    head = new ConvertedValue(cv.type, cv.converter, cv.string, cv.value, head);
+                }
+            }
+            if (removed) {
+                if (head == null) {
+                    convertedValues.remove(entry.getKey(), entry.getValue());
+                }
+                else {
+                    convertedValues.replace(entry.getKey(), entry.getValue(), head);
+                }
+            }
+        }
+        for (WeakReference<ResourceMap> ref : children) {
+            ResourceMap child = ref.get();
+            if (child != null) {
+                child.removeConvertedValues(converter);
+            }
+            else {
+                children.remove(ref);
+            }
+        }
     }
 
-    /** 
-     * A convenience method that's shorthand for calling:
-     * <tt>getObject(key, Double.class)</tt>.  
-     * 
-     * @param key the name of the resource
-     * @throws LookupException if an error occurs during lookup or string conversion
-     * @throws IllegalArgumentException if <tt>key</tt> is null
-     * @return the Double value of the resource named key
-     * @see #getObject
+    /* Converts string, the value of key, to type and caches the 
+     * result.  If another thread is already converting the same string
+     * for the same key and type, this waits for its result instead, so
+     * each value is only converted once.  Conversions in flight are
+     * tracked per key and type, there's no lock that all conversions
+     * share.  The caller has already looked for a cached value, but 
+     * another thread may have cached one and finished its Conversion
+     * since then, so the cache is checked again once this thread's 
+     * Conversion is in flight.
      */
-    public final Double getDouble(final String key) { 
-	return (Double)getObject(key, Double.class); 
+    Object convert(final String key, final Class<?> type, final String string, 
+                   final ResourceConverter converter) throws ResourceConverterException {
+        ConversionKey conversionKey = new ConversionKey(key, type, converter);
+        Conversion conversion = new Conversion(key, type, string, converter);
+        Conversion inFlight = conversions.putIfAbsent(conversionKey, conversion);
+        if (inFlight == null) {
+            try {
+                ConvertedValue cv = getConvertedValue(key, type, converter, string);
+                if (cv != null) {
+                    conversion.setValue(cv.value);
+                }
+                else {
+                    conversion.run();
+                }
+            }
+            finally {
+                conversions.remove(conversionKey, conversion);
+            }
+            return conversion.getValue();
+        }
+        else if (inFlight.owner == Thread.currentThread()) {
+            /* The converter has looked up the resource it's 
+             * converting, waiting for it would never return.
+             */
+            String msg = "recursive string conversion";
+            throw new LookupException(msg, key, type);
+        }
+        else if (!inFlight.string.equals(string)) {
+            // the resource has changed since inFlight started
+            conversion.run();
+            return conversion.getValue();
+        }
+        return inFlight.getValue();
     }
 
-    /**
-     * 
-     * A convenience method that's shorthand for calling:
-     * <tt>getObject(key, Icon.class)</tt>.  This method
-     * relies on the ImageIcon ResourceConverter that's registered
-     * by this class.  See {@link #getImageIcon} for more information.
-     * 
-     * 
-     * @param key the name of the resource
-     * @return the Icon value of the resource named key
-     * @see #getObject
-     * @throws LookupException if an error occurs during lookup or string conversion
-     * @throws IllegalArgumentException if <tt>key</tt> is null
+    private static final class ConversionKey {
+        private final String key;
+        private final Class<?> type;
+        private final ResourceConverter converter;
+        ConversionKey(final String key, final Class<?> type, final ResourceConverter converter) {
+            this.key = key;
+            this.type = type;
+            this.converter = converter;
+        }
+        @Override
+        public boolean equals(final Object o) {
+            if (!(o instanceof ConversionKey)) {
+                return false;
+            }
+            ConversionKey ck = (ConversionKey)o;
+            return key.equals(ck.key) && (type == ck.type) && (converter == ck.converter);
+        }
+        @Override
+        public int hashCode() {
+            return 31 * (31 * key.hashCode() + type.hashCode()) + System.identityHashCode(converter);
+        }
+    }
+
+    /* A string conversion that's in progress, see convert().  The 
+     * converted value is cached before the conversion completes, so
+     * a thread that finds neither a cached value nor a Conversion in 
+     * flight can't repeat one that has just finished.
      */
-    public final Icon getIcon(final String key) { 
-	return (Icon)getObject(key, Icon.class); 
+    private final class Conversion extends FutureTask<Object> {
+        final String string;
+        final Thread owner = Thread.currentThread();
+
+        Conversion(final String key, final Class<?> type, final String string, final ResourceConverter converter) {
+            super(new Callable<Object>() {
+                public Object call() throws ResourceConverterException {
+                    Object value = converter.parseCanonicalString(string, ResourceMap.this);
+                    putConvertedValue(key, type, converter, string, value);
+                    return value;
+                }
+            });
+            this.string = string;
+        }
+
+        /* Completes the conversion with a value that another one has
+         * already cached, without running the converter.
+         */
+        void setValue(final Object value) {
+            set(value);
+        }
+
+        /* Waits for the conversion to complete, without giving up if 
+         * this thread is interrupted, and rethrows its exceptions.
+         */
+        Object getValue() throws ResourceConverterException {
+            boolean interrupted = false;
+            try {
+                while (true) {
+                    try {
+                        return get();
+                    }
+                    catch (InterruptedException e) {
+                        interrupted = true;
+                    }
+                }
+            }
+            catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof ResourceConverterException) {
+                    throw (ResourceConverterException)cause;
+                }
+                else if (cause instanceof RuntimeException) {
+                    throw (RuntimeException)cause;
+                }
+                else if (cause instanceof Error) {
+                    throw (Error)cause;
+                }
+                throw new IllegalStateException(cause);
+            }
+            finally {
+                if (interrupted) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+    }
+
+    private void putConvertedValue(final String key, final Class<?> type, final ResourceConverter converter,
+                                   final String string, final Object value) {
+        ConvertedValue head = null;
+        for (ConvertedValue cv = convertedValues.get(key); cv != null; cv = cv.next) {
+            if (((cv.type != type) || (cv.converter != converter)) && cv.string.equals(string)) {
+                head = new ConvertedValue(cv.type, cv.converter, cv.string, cv.value, head);
+            }
+        }
+        convertedValues.put(key, new ConvertedValue(type, converter, string, value, head));
     }
 
     /**
+     * Evaluates all of the <tt>${key}</tt> expressions defined by this
+     * ResourceMap and its parents, so that later lookups don't pay for 
+     * evaluating them.  Each expression is evaluated after the 
+     * expressions it refers to, and expressions that don't depend on
+     * each other are evaluated in the same "wave", in parallel, by
+     * <tt>executor</tt>.  This method returns when all of the 
+     * expressions have been evaluated.
+     * <p>
+     * The expressions are checked for reference cycles, like 
+     * <tt>a = ${b}</tt>, <tt>b = ${a}</tt>, before any of them are
+     * evaluated.  A cycle is reported with a LookupException for
+     * one of its keys.
      * 
-     * A convenience method that's shorthand for calling:
-     * <tt>getObject(key, ImageIcon.class)</tt>.  This method
-     * relies on the ImageIcon ResourceConverter that's registered
+     * @param executor runs the evaluation tasks
+     * @throws LookupException if the expressions contain a reference cycle,
+     *   or if an error occurs during evaluation
+     * @throws IllegalArgumentException if <tt>executor</tt> is null
+     * @see #resolveAll()
+     */
+    public void resolveAll(final Executor executor) {
+        if (executor == null) {
+            throw new IllegalArgumentException("null executor");
+        }
+        for (List<String> wave : getExpressionWaves()) {
+            List<FutureTask<String>> tasks = new ArrayList<FutureTask<String>>(wave.size());
+            for (final String key : wave) {
+                FutureTask<String> task = new FutureTask<String>(new Callable<String>() {
+                    public String call() {
+                        return getString(key);
+                    }
+                });
+                executor.execute(task);
+                tasks.add(task);
+            }
+            for (int i = 0; i < tasks.size(); i++) {
+                try {
+                    tasks.get(i).get();
+                }
+                catch (ExecutionException e) {
+                    if (e.getCause() instanceof RuntimeException) {
+                        throw (RuntimeException)e.getCause();
+                    }
+                    String msg = "expression evaluation failed";
+                    LookupException lfe = new LookupException(msg, wave.get(i), String.class);
+                    lfe.initCause(e.getCause());
+                    throw lfe;
+                }
+                catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    String msg = "expression evaluation interrupted";
+                    LookupException lfe = new LookupException(msg, wave.get(i), String.class);
+                    lfe.initCause(e);
+                    throw lfe;
+                }
+            }
+        }
+    }
+
+    /**
+     * Evaluates all of the <tt>${key}</tt> expressions defined by this
+     * ResourceMap and its parents in the calling thread.  See 
+     * {@link #resolveAll(Executor)} for more information.
+     * 
+     * @throws LookupException if the expressions contain a reference cycle,
+     *   or if an error occurs during evaluation
+     */
+    public void resolveAll() {
+        resolveAll(new Executor() {
+            public void execute(final Runnable command) {
+                command.run();
+            }
+        });
+    }
+
+    /**
+     * The resource types {@link #warmUp(Executor)} converts resources
+     * to, by key suffix: ".icon" resources are converted to Icons,
+     * ".font" resources to Fonts, and ".foreground" and ".background"
+     * resources to Colors.  These are the suffixes of the component
+     * properties most often injected by {@link #injectComponent}.
+     */
+    public static final Map<String, Class<?>> DEFAULT_WARM_UP_TYPES;
+    static {
+        Map<String, Class<?>> types = new LinkedHashMap<String, Class<?>>();
+        types.put(".icon", Icon.class);
+        types.put(".font", Font.class);
+        types.put(".foreground", Color.class);
+        types.put(".background", Color.class);
+        DEFAULT_WARM_UP_TYPES = Collections.unmodifiableMap(types);
+    }
+
+    /**
+     * Loads this ResourceMap's bundles, and its parents', and converts 
+     * the resources whose type is implied by their key, in the 
+     * background, so that the first lookups don't have to.  This is 
+     * shorthand for <tt>warmUp(executor, DEFAULT_WARM_UP_TYPES)</tt>.
+     * 
+     * @param executor runs the warm up tasks
+     * @return the warm up's result, see {@link #warmUp(Executor, Map)}
+     * @throws IllegalArgumentException if <tt>executor</tt> is null
+     */
+    public Future<List<LookupException>> warmUp(final Executor executor) {
+        return warmUp(executor, DEFAULT_WARM_UP_TYPES);
+    }
+
+    /**
+     * Loads this ResourceMap's bundles, and its parents', and looks up
+     * its resources in the background, so that the first lookups 
+     * don't have to.  The bundles are loaded by one task; then each
+     * resource whose key ends with one of the suffixes in 
+     * <tt>types</tt> is converted to the corresponding type, and each
+     * other resource that contains <tt>${key}</tt> expressions is
+     * evaluated, in separate tasks, in parallel.  The results are 
+     * cached as usual.
+     * <p>
+     * The returned Future's value is the list of LookupExceptions 
+     * thrown by the lookups that failed, which is empty if there
+     * weren't any.  Any other exception fails the Future.  If the 
+     * Future is cancelled, tasks that haven't started yet don't look
+     * anything up.  The Future is also returned by {@link #getWarmUp}.
+     * 
+     * @param executor runs the warm up tasks
+     * @param types resource types, by key suffix, for example 
+     *   <tt>".icon"</tt> and <tt>Icon.class</tt>
+     * @return the warm up's result
+     * @throws IllegalArgumentException if <tt>executor</tt> or <tt>types</tt> 
+     *   are null
+     * @see #DEFAULT_WARM_UP_TYPES
+     */
+    public Future<List<LookupException>> warmUp(final Executor executor, final Map<String, Class<?>> types) {
+        if (executor == null) {
+            throw new IllegalArgumentException("null executor");
+        }
+        if (types == null) {
+            throw new IllegalArgumentException("null types");
+        }
+        final Map<String, Class<?>> suffixTypes = new LinkedHashMap<String, Class<?>>(types);
+        Future<List<LookupException>> result = lookUpInBackground(executor, new LookupTypes() {
+            public Class<?> typeOf(final String key) {
+                for (Map.Entry<String, Class<?>> entry : suffixTypes.entrySet()) {
+                    if (key.endsWith(entry.getKey())) {
+                        return entry.getValue();
+                    }
+                }
+                Object value = getRawResource(key);
+                return ((value instanceof String) && ((String)value).contains("${")) ? String.class : null;
+            }
+        });
+        warmUp = result;
+        return result;
+    }
+
+    /**
+     * Returns the Future returned by the most recent call to
+     * {@link #warmUp(Executor, Map)}, or null if this ResourceMap 
+     * hasn't been warmed up.
+     * 
+     * @return the result of the most recent warm up, or null
+     */
+    public Future<List<LookupException>> getWarmUp() {
+        return warmUp;
+    }
+
+    /**
+     * Loads the Icons of the resources whose names start with 
+     * <tt>prefix</tt> and whose values name an image file in the 
+     * background, with a small pool of daemon threads that all
+     * ResourceMaps share.  This is shorthand for 
+     * {@link #prefetchImages(Executor, String)} with that pool, which
+     * is created the first time it's needed and lives as long as the
+     * application.  Applications that need to control the threads' 
+     * lifecycle should supply their own Executor.
+     * 
+     * @param prefix the resource name prefix, "" for all resources
+     * @return the result of the prefetch
+     * @throws IllegalArgumentException if <tt>prefix</tt> is null
+     * @see #getIconAsync
+     */
+    public Future<List<LookupException>> prefetchImages(final String prefix) {
+        return prefetchImages(getImageLoader(), prefix);
+    }
+
+    /**
+     * Loads the Icons of the resources whose names start with 
+     * <tt>prefix</tt> and whose values name an image file, a ".png", 
+     * ".gif", ".jpg", ".jpeg" or ".bmp" file, in the background.  The 
+     * images are decoded in parallel, by <tt>executor</tt>, and the 
+     * Icons are cached so that {@link #getIcon} returns them without 
+     * delay.  The images of lazy Icons are loaded too, see 
+     * {@link #setLazyIcons}.
+     * <p>
+     * The returned Future's value is the list of LookupExceptions 
+     * thrown by the Icons that couldn't be loaded, see
+     * {@link #warmUp(Executor, Map)}.
+     * 
+     * @param executor runs the image loading tasks
+     * @param prefix the resource name prefix, "" for all resources
+     * @return the result of the prefetch
+     * @throws IllegalArgumentException if <tt>executor</tt> or 
+     *   <tt>prefix</tt> are null
+     * @see #getIconAsync(Executor, String)
+     */
+    public Future<List<LookupException>> prefetchImages(final Executor executor, final String prefix) {
+        if (executor == null) {
+            throw new IllegalArgumentException("null executor");
+        }
+        if (prefix == null) {
+            throw new IllegalArgumentException("null prefix");
+        }
+        return lookUpInBackground(executor, new LookupTypes() {
+            public Class<?> typeOf(final String key) {
+                return (key.startsWith(prefix) && isImageResource(key)) ? Icon.class : null;
+            }
+        });
+    }
+
+    /**
+     * Loads the Icons of the named resources in the background, with
+     * the pool of daemon threads that {@link #prefetchImages(String)}
+     * uses.
+     * 
+     * @param keys the resource names
+     * @return the result of the prefetch
+     * @throws IllegalArgumentException if <tt>keys</tt> is null
+     * @see #prefetchImages(Executor, Collection)
+     */
+    public Future<List<LookupException>> prefetchImages(final Collection<String> keys) {
+        return prefetchImages(getImageLoader(), keys);
+    }
+
+    /**
+     * Loads the Icons of the named resources in the background, like
+     * {@link #prefetchImages(Executor, String)}.  Names that aren't 
+     * defined by this ResourceMap, or whose values don't name an image
+     * file, are ignored.
+     * 
+     * @param executor runs the image loading tasks
+     * @param keys the resource names
+     * @return the result of the prefetch
+     * @throws IllegalArgumentException if <tt>executor</tt> or 
+     *   <tt>keys</tt> are null
+     */
+    public Future<List<LookupException>> prefetchImages(final Executor executor, final Collection<String> keys) {
+        if (executor == null) {
+            throw new IllegalArgumentException("null executor");
+        }
+        if (keys == null) {
+            throw new IllegalArgumentException("null keys");
+        }
+        final Set<String> keySet = new HashSet<String>(keys);
+        return lookUpInBackground(executor, new LookupTypes() {
+            public Class<?> typeOf(final String key) {
+                return (keySet.contains(key) && isImageResource(key)) ? Icon.class : null;
+            }
+        });
+    }
+
+    /**
+     * Returns a Future for the value of <tt>getIcon(key)</tt>, which is 
+     * loaded in the background by the threads that 
+     * {@link #prefetchImages(String)} uses.
+     * 
+     * @param key the name of the resource
+     * @return the Icon value of the resource named key, or null
+     * @throws IllegalArgumentException if <tt>key</tt> is null
+     * @see #getIconAsync(Executor, String)
+     */
+    public Future<Icon> getIconAsync(final String key) {
+        return getIconAsync(getImageLoader(), key);
+    }
+
+    /**
+     * Returns a Future for the value of <tt>getIcon(key)</tt>, which is 
+     * loaded in the background by <tt>executor</tt>.  The Future fails
+     * with a LookupException if <tt>getIcon</tt> would throw one.
+     * 
+     * @param executor loads the Icon
+     * @param key the name of the resource
+     * @return the Icon value of the resource named key, or null
+     * @throws IllegalArgumentException if <tt>executor</tt> or 
+     *   <tt>key</tt> are null
+     * @see #getIcon
+     */
+    public Future<Icon> getIconAsync(final Executor executor, final String key) {
+        if (executor == null) {
+            throw new IllegalArgumentException("null executor");
+        }
+        checkNullKey(key);
+        FutureTask<Icon> icon = new FutureTask<Icon>(new Callable<Icon>() {
+            public Icon call() {
+                return getIcon(key);
+            }
+        });
+        executor.execute(icon);
+        return icon;
+    }
+
+    private static final String[] imageSuffixes = { ".png", ".gif", ".jpg", ".jpeg", ".bmp" };
+
+    private boolean isImageResource(final String key) {
+        Object value = getRawResource(key);
+        if (value instanceof String) {
+            String s = ((String)value).trim();
+            for (String suffix : imageSuffixes) {
+                if (s.regionMatches(true, s.length() - suffix.length(), suffix, 0, suffix.length())) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private static ExecutorService imageLoader = null;
+
+    /* The thread pool that prefetchImages() and getIconAsync() use
+     * by default, it's created the first time it's needed.  The number of threads
+     * is bounded by the number of processors, since decoding is CPU
+     * bound, and they're daemon threads so they don't keep the 
+     * application from exiting.
+     */
+    private static synchronized ExecutorService getImageLoader() {
+        if (imageLoader == null) {
+            int nThreads = Math.max(2, Math.min(4, Runtime.getRuntime().availableProcessors()));
+            imageLoader = Executors.newFixedThreadPool(nThreads, new ThreadFactory() {
+                private final AtomicInteger n = new AtomicInteger(0);
+                public Thread newThread(final Runnable r) {
+                    Thread thread = new Thread(r, "ResourceMap image loader " + n.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        return imageLoader;
+    }
+
+    /* Returns the unconverted value of key from this ResourceMap or 
+     * the first parent that has one, or null.
+     */
+    private Object getRawResource(final String key) {
+        ResourceMap node = getResourceNode(key);
+        return (node != null) ? node.getResource(key) : null;
+    }
+
+    /* Returns this ResourceMap or the first parent that defines key,
+     * or null.
+     */
+    private ResourceMap getResourceNode(final String key) {
+        for (ResourceMap node = this; node != null; node = node.getParent()) {
+            if (node.containsResourceKey(key)) {
+                return node;
+            }
+        }
+        return null;
+    }
+
+    /* Selects the resources lookUpInBackground() looks up, and their
+     * types.
+     */
+    private interface LookupTypes {
+        /* Returns the type key should be looked up as, or null to 
+         * skip it.
+         */
+        Class<?> typeOf(String key);
+    }
+
+    /* Looks up resources, with getObject(), in the background.  The 
+     * first task loads the bundles and selects the resources, then 
+     * each one is looked up in a separate task.  See warmUp().
+     */
+    private Future<List<LookupException>> lookUpInBackground(final Executor executor, final LookupTypes types) {
+        final BackgroundLookups result = new BackgroundLookups();
+        executor.execute(new Runnable() {
+            public void run() {
+                if (result.isCancelled()) {
+                    return;
+                }
+                try {
+                    List<Runnable> lookups = new ArrayList<Runnable>();
+                    for (String key : keySet()) {
+                        Class<?> type = types.typeOf(key);
+                        if (type != null) {
+                            lookups.add(result.lookup(key, type));
+                        }
+                    }
+                    result.start(lookups.size());
+                    for (Runnable lookup : lookups) {
+                        executor.execute(lookup);
+                    }
+                }
+                catch (Throwable e) {
+                    result.fail(e);
+                }
+            }
+        });
+        return result;
+    }
+
+    /* The result of lookUpInBackground().  Lookups that fail with a 
+     * LookupException are recorded, the result is set when the
+     * last lookup is done.
+     */
+    private final class BackgroundLookups extends FutureTask<List<LookupException>> {
+        private final List<LookupException> failures = new ArrayList<LookupException>();
+        private final AtomicInteger pending = new AtomicInteger(0);
+
+        BackgroundLookups() {
+            super(new Callable<List<LookupException>>() {
+                public List<LookupException> call() {
+                    throw new IllegalStateException("not run"); // see start(), fail()
+                }
+            });
+        }
+
+        Runnable lookup(final String key, final Class<?> type) {
+            return new Runnable() {
+                public void run() {
+                    try {
+                        if (!isCancelled()) {
+                            Object value = getSharedObject(key, type);
+                            if (value instanceof LazyIcon) {
+                                ((LazyIcon)value).getImageIcon();
+                            }
+                        }
+                    }
+                    catch (LookupException e) {
+                        synchronized (failures) {
+                            failures.add(e);
+                        }
+                    }
+                    catch (Throwable e) {
+                        fail(e);
+                    }
+                    finally {
+                        done(1);
+                    }
+                }
+            };
+        }
+
+        void start(final int nLookups) {
+            done(-nLookups);
+        }
+
+        void fail(final Throwable e) {
+            setException(e);
+        }
+
+        /* start() sets pending to minus the number of lookups, and
+         * each lookup adds one when it's done, so the last one (or 
+         * start(0)) sets the result.
+         */
+        private void done(final int n) {
+            if (pending.addAndGet(n) == 0) {
+                synchronized (failures) {
+                    set(Collections.unmodifiableList(new ArrayList<LookupException>(failures)));
+                }
+            }
+        }
+    }
+
+    /* Returns the keys of all of the expressions in this ResourceMap
+     * and its parents, in "waves": the expressions in a wave only refer
+     * to expressions in earlier waves.  Throws a LookupException if
+     * there's a reference cycle.
+     */
+    private List<List<String>> getExpressionWaves() {
+        // expression key => the keys of the expressions it refers to
+        Map<String, Set<String>> references = new HashMap<String, Set<String>>();
+        for (String key : keySet()) {
+            for (ResourceMap node = this; node != null; node = node.getParent()) {
+                if (node.containsResourceKey(key)) {
+                    Object value = node.getResource(key);
+                    if ((value instanceof String) && ((String)value).contains("${")) {
+                        ExpressionTemplate template = node.getExpressionTemplate(key, (String)value);
+                        references.put(key, new HashSet<String>(template.getReferences()));
+                    }
+                    break;
+                }
+            }
+        }
+        Map<String, List<String>> dependents = new HashMap<String, List<String>>();
+        Map<String, Integer> unresolved = new HashMap<String, Integer>();
+        List<String> wave = new ArrayList<String>();
+        for (Map.Entry<String, Set<String>> entry : references.entrySet()) {
+            Set<String> expressionReferences = entry.getValue();
+            expressionReferences.retainAll(references.keySet());
+            for (String reference : expressionReferences) {
+                List<String> keys = dependents.get(reference);
+                if (keys == null) {
+                    keys = new ArrayList<String>();
+                    dependents.put(reference, keys);
+                }
+                keys.add(entry.getKey());
+            }
+            if (expressionReferences.isEmpty()) {
+                wave.add(entry.getKey());
+            }
+            else {
+                unresolved.put(entry.getKey(), expressionReferences.size());
+            }
+        }
+        List<List<String>> waves = new ArrayList<List<String>>();
+        while (!wave.isEmpty()) {
+            waves.add(wave);
+            List<String> nextWave = new ArrayList<String>();
+            for (String key : wave) {
+                List<String> keys = dependents.get(key);
+                if (keys != null) {
+                    for (String dependent : keys) {
+                        int n = unresolved.get(dependent) - 1;
+                        if (n == 0) {
+                            unresolved.remove(dependent);
+                            nextWave.add(dependent);
+                        }
+                        else {
+                            unresolved.put(dependent, n);
+                        }
+                    }
+                }
+            }
+            wave = nextWave;
+        }
+        if (!unresolved.isEmpty()) {
+            /* Every unresolved expression refers to another unresolved 
+             * expression, so following those references from any of them
+             * leads to a cycle.
+             */
+            List<String> path = new ArrayList<String>();
+            String key = unresolved.keySet().iterator().next();
+            while (!path.contains(key)) {
+                path.add(key);
+                for (String reference : references.get(key)) {
+                    if (unresolved.containsKey(reference)) {
+                        key = reference;
+                        break;
+                    }
+                }
+            }
+            StringBuilder msg = new StringBuilder("reference cycle: ");
+            for (String k : path.subList(path.indexOf(key), path.size())) {
+                msg.append(k).append(" -> ");
+            }
+            msg.append(key);
+            throw new LookupException(msg.toString(), key, String.class);
+        }
+        return waves;
+    }
+
+    /* Given the following resources:
+     * 
+     * hello = Hello
+     * world = World
+     * place = ${world}
+     * 
+     * The value of evaluateExpression("greeting", "${hello} ${place}", node)
+     * would be "Hello World".  The value of ${null} is null.  Node is
+     * the ResourceMap that defines the expression, this one or a parent,
+     * variables are always looked up in this ResourceMap.  That's
+     * why results are cached here, not by node: a child ResourceMap
+     * can shadow some of the variables an expression in its parent
+     * refers to.
+     *
+     * The result is cached and the keys of the variables are recorded in 
+     * expressionDependents, so that the result can be discarded when 
+     * one of them changes, see invalidateExpressions().  If the 
+     * resources change while the expression is being evaluated the
+     * result isn't cached.
+     */
+    private String evaluateExpression(final String key, final String expr, final ResourceMap node) {
+        long stamp = getResourcesStamp();  // reloads stale ResourceBundles
+        ExpressionValue ev = expressionValues.get(key);
+        if ((stamp != -1) && (ev != null) && ev.expression.equals(expr)) {
+            return ev.value;
+        }
+        ExpressionTemplate template = node.getExpressionTemplate(key, expr);
+        List<Object> evaluating = evaluatingExpressions.get();
+        for (int i = 0; i < evaluating.size(); i += 2) {
+            if ((evaluating.get(i) == this) && evaluating.get(i + 1).equals(key)) {
+                StringBuilder msg = new StringBuilder("reference cycle: ");
+                for (int j = i + 1; j < evaluating.size(); j += 2) {
+                    msg.append(evaluating.get(j)).append(" -> ");
+                }
+                msg.append(key);
+                throw new LookupException(msg.toString(), key, String.class);
+            }
+        }
+        evaluating.add(this);
+        evaluating.add(key);
+        String value;
+        try {
+            value = template.evaluate(this);
+        }
+        finally {
+            evaluating.remove(evaluating.size() - 1);
+            evaluating.remove(evaluating.size() - 1);
+        }
+        if (stamp != -1) {
+            for (String reference : template.getReferences()) {
+                Set<String> dependents = expressionDependents.get(reference);
+                if (dependents == null) {
+                    Set<String> newDependents = new CopyOnWriteArraySet<String>();
+                    dependents = expressionDependents.putIfAbsent(reference, newDependents);
+                    if (dependents == null) {
+                        dependents = newDependents;
+                    }
+                }
+                dependents.add(key);
+            }
+            ev = new ExpressionValue(expr, value);
+            expressionValues.put(key, ev);
+            if (getResourcesStamp() != stamp) {
+                expressionValues.remove(key, ev);
+            }
+        }
+        return value;
+    }
+
+    /* The (ResourceMap, key) pairs of the expressions the current thread
+     * is evaluating, so that a reference cycle like a = ${b}, b = ${a}
+     * is reported with a LookupException rather than a StackOverflowError.
+     */
+    private static final ThreadLocal<List<Object>> evaluatingExpressions = new ThreadLocal<List<Object>>() {
+        @Override
+        protected List<Object> initialValue() {
+            return new ArrayList<Object>();
+        }
+    };
+
+    private static final class ExpressionValue {
+        final String expression;
+        final String value;
+        ExpressionValue(String expression, String value) {
+            this.expression = expression;
+            this.value = value;
+        }
+    }
+
+    /* Returns the compiled form of expr, the value of the resource 
+     * named key.  Templates are compiled once each time the
+     * ResourceBundles are loaded.
+     */
+    private ExpressionTemplate getExpressionTemplate(final String key, final String expr) {
+        ExpressionTemplate template = expressionTemplates.get(key);
+        if ((template == null) || !template.getSource().equals(expr)) {
+            template = ExpressionTemplate.compile(expr);
+            expressionTemplates.put(key, template);
+        }
+        return template;
+    }
+
+    /* Discards the cached values of the expressions that refer, 
+     * directly or indirectly, to one of keys, in this ResourceMap and 
+     * in the ResourceMaps that have it as an ancestor.  This doesn't
+     * lock anything since it's called by getBundlesMap(), and child 
+     * ResourceMaps lock their parents, not the other way around.
+     */
+    private void invalidateExpressions(final Collection<String> keys) {
+        if (keys.isEmpty()) {
+            return;
+        }
+        Set<String> invalidKeys = new HashSet<String>();
+        List<String> work = new ArrayList<String>(keys);
+        while (!work.isEmpty()) {
+            String key = work.remove(work.size() - 1);
+            if (invalidKeys.add(key)) {
+                expressionValues.remove(key);
+                Set<String> dependents = expressionDependents.remove(key);
+                if (dependents != null) {
+                    work.addAll(dependents);
+                }
+            }
+        }
+        for (WeakReference<ResourceMap> ref : children) {
+            ResourceMap child = ref.get();
+            if (child != null) {
+                child.invalidateExpressions(invalidKeys);
+            }
+            else {
+                children.remove(ref);
+            }
+        }
+    }
+
+    private void addChild(final ResourceMap child) {
+        for (WeakReference<ResourceMap> ref : children) {
+            if (ref.get() == null) {
+                children.remove(ref);
+            }
+        }
+        children.add(new WeakReference<ResourceMap>(child));
+    }
+
+    /** 
+     * If no arguments are specified, return the String value
+     * of the resource named <tt>key</tt>.  This is 
+     * equivalent to calling <tt>getObject(key, String.class)</tt>
+     * If arguments are provided, then the type of the resource
+     * named <tt>key</tt> is assumed to be 
+     * {@link String#format(String, Object...) format} string, 
+     * which is applied to the arguments if it's non null.  
+     * For example, given the following resources
+     * <pre>
+     * hello = Hello %s
+     * </pre>
+     * then the value of <tt>getString("hello", "World")</tt> would
+     * be <tt>"Hello World"</tt>.  The format string is parsed once
+     * and the result is cached, for as long as the resource's value
+     * doesn't change.
+     * 
+     * @return the String value of the resource named <tt>key</tt> 
+     * @throws LookupException if an error occurs during lookup or string conversion
+     * @throws IllegalArgumentException if <tt>key</tt> is null
+     * @see #getObject
+     * @see #appendString(StringBuilder, String, Object...)
+     * @see String#format(String, Object...)
+     */
+    public String getString(final String key, final Object... args) {
+	if (args.length == 0) {
+	    return (String)getObject(key, String.class);
+	}
+	else {
+	    String format = (String)getObject(key, String.class);
+	    return (format == null) ? null : getFormatTemplate(key, format).format(Locale.getDefault(), args);
+	}
+    }
+
+    /**
+     * Appends the value of <tt>getString(key, args)</tt> to 
+     * <tt>sb</tt>, without creating an intermediate String.  If the
+     * resource named key isn't defined, or its value is null, nothing
+     * is appended.
+     * 
+     * @param sb the StringBuilder to append to
+     * @param key the name of the resource
+     * @param args the format arguments, if any
+     * @return sb
+     * @throws LookupException if an error occurs during lookup or string conversion
+     * @throws IllegalArgumentException if <tt>sb</tt> or <tt>key</tt> are null
+     * @see #getString
+     */
+    public StringBuilder appendString(final StringBuilder sb, final String key, final Object... args) {
+        if (sb == null) {
+            throw new IllegalArgumentException("null StringBuilder");
+        }
+        String format = (String)getObject(key, String.class);
+        if (format != null) {
+            if (args.length == 0) {
+                sb.append(format);
+            }
+            else {
+                getFormatTemplate(key, format).formatTo(sb, Locale.getDefault(), args);
+            }
+        }
+        return sb;
+    }
+
+    /**
+     * Appends the value of <tt>getString(key, args)</tt> to 
+     * <tt>out</tt>, for example a Writer, without creating an 
+     * intermediate String.  If the resource named key isn't defined, 
+     * or its value is null, nothing is appended.
+     * 
+     * @param out the Appendable to append to
+     * @param key the name of the resource
+     * @param args the format arguments, if any
+     * @return out
+     * @throws IOException if <tt>out</tt> throws an IOException
+     * @throws LookupException if an error occurs during lookup or string conversion
+     * @throws IllegalArgumentException if <tt>out</tt> or <tt>key</tt> are null
+     * @see #getString
+     */
+    public Appendable appendString(final Appendable out, final String key, final Object... args) throws IOException {
+        if (out == null) {
+            throw new IllegalArgumentException("null Appendable");
+        }
+        String format = (String)getObject(key, String.class);
+        if (format != null) {
+            if (args.length == 0) {
+                out.append(format);
+            }
+            else {
+                getFormatTemplate(key, format).formatTo(out, Locale.getDefault(), args);
+            }
+        }
+        return out;
+    }
+
+    /**
+     * Returns the value of the resource named key, a 
+     * {@link MessageFormat} pattern, applied to <tt>args</tt>.  For 
+     * example, given the following resources
+     * <pre>
+     * fileCount = {0} contains {1,number,integer} files
+     * </pre>
+     * then the value of <tt>format("fileCount", "docs", 3)</tt> would
+     * be <tt>"docs contains 3 files"</tt>.
+     * <p>
+     * The pattern is parsed once per locale, the default locale at the 
+     * time of the call.  Unlike the shared MessageFormat returned by 
+     * <tt>getObject(key, MessageFormat.class)</tt>, it's safe to call
+     * this method from any number of threads at the same time.
+     * 
+     * @param key the name of the resource
+     * @param args the format arguments
+     * @return the formatted String, or null if the resource isn't defined
+     * @throws LookupException if an error occurs during lookup, or if the
+     *   pattern isn't valid
+     * @throws IllegalArgumentException if <tt>key</tt> is null, or if 
+     *   one of the args can't be formatted
+     * @see MessageFormat
+     * @see #appendFormat(StringBuilder, String, Object...)
+     */
+    public String format(final String key, final Object... args) {
+        MessageFormatPool pool = getMessageFormatPool(key);
+        return (pool == null) ? null : pool.format(args);
+    }
+
+    /**
+     * Appends the value of <tt>format(key, args)</tt> to <tt>sb</tt>.
+     * If the resource named key isn't defined, or its value is null, 
+     * nothing is appended.
+     * 
+     * @param sb the StringBuilder to append to
+     * @param key the name of the resource
+     * @param args the format arguments
+     * @return sb
+     * @throws LookupException if an error occurs during lookup, or if the
+     *   pattern isn't valid
+     * @throws IllegalArgumentException if <tt>sb</tt> or <tt>key</tt> are 
+     *   null, or if one of the args can't be formatted
+     * @see #format
+     */
+    public StringBuilder appendFormat(final StringBuilder sb, final String key, final Object... args) {
+        if (sb == null) {
+            throw new IllegalArgumentException("null StringBuilder");
+        }
+        MessageFormatPool pool = getMessageFormatPool(key);
+        if (pool != null) {
+            pool.formatTo(sb, args);
+        }
+        return sb;
+    }
+
+    /**
+     * Appends the value of <tt>format(key, args)</tt> to <tt>out</tt>.
+     * If the resource named key isn't defined, or its value is null, 
+     * nothing is appended.
+     * 
+     * @param out the Appendable to append to
+     * @param key the name of the resource
+     * @param args the format arguments
+     * @return out
+     * @throws IOException if <tt>out</tt> throws an IOException
+     * @throws LookupException if an error occurs during lookup, or if the
+     *   pattern isn't valid
+     * @throws IllegalArgumentException if <tt>out</tt> or <tt>key</tt> are 
+     *   null, or if one of the args can't be formatted
+     * @see #format
+     */
+    public Appendable appendFormat(final Appendable out, final String key, final Object... args) throws IOException {
+        if (out == null) {
+            throw new IllegalArgumentException("null Appendable");
+        }
+        MessageFormatPool pool = getMessageFormatPool(key);
+        if (pool != null) {
+            pool.formatTo(out, args);
+        }
+        return out;
+    }
+
+    private MessageFormatPool getMessageFormatPool(final String key) {
+        String pattern = (String)getObject(key, String.class);
+        if (pattern == null) {
+            return null;
+        }
+        Locale defaultLocale = Locale.getDefault();
+        MessageFormatPool pool = messageFormats.get(key);
+        if ((pool == null) || !pool.matches(pattern, defaultLocale)) {
+            try {
+                pool = new MessageFormatPool(pattern, defaultLocale);
+            }
+            catch (IllegalArgumentException e) {
+                String msg = "invalid MessageFormat pattern";
+                LookupException lfe = new LookupException(msg, key, MessageFormat.class);
+                lfe.initCause(e);
+                throw lfe;
+            }
+            messageFormats.put(key, pool);
+        }
+        return pool;
+    }
+
+    /* Returns the compiled form of format, the value of the resource 
+     * named key.
+     */
+    private FormatTemplate getFormatTemplate(final String key, final String format) {
+        FormatTemplate template = formatTemplates.get(key);
+        if ((template == null) || !template.getSource().equals(format)) {
+            template = FormatTemplate.compile(format);
+            formatTemplates.put(key, template);
+        }
+        return template;
+    }
+
+    /** 
+     * A convenience method that's shorthand for calling:
+     * <tt>getObject(key, Boolean.class)</tt>.  
+     * 
+     * @param key the name of the resource
+     * @throws LookupException if an error occurs during lookup or string conversion
+     * @throws IllegalArgumentException if <tt>key</tt> is null
+     * @return the Boolean value of the resource named key
+     * @see #getObject
+     */
+    public final Boolean getBoolean(final String key) { 
+	return (Boolean)getObject(key, Boolean.class); 
+    }
+
+    /** 
+     * A convenience method that's shorthand for calling:
+     * <tt>getObject(key, Integer.class)</tt>.  
+     * 
+     * @param key the name of the resource
+     * @throws LookupException if an error occurs during lookup or string conversion
+     * @throws IllegalArgumentException if <tt>key</tt> is null
+     * @return the Integer value of the resource named key
+     * @see #getObject
+     */
+    public final Integer getInteger(final String key) { 
+	return (Integer)getObject(key, Integer.class); 
+    }
+
+    /** 
+     * A convenience method that's shorthand for calling:
+     * <tt>getObject(key, Long.class)</tt>.  
+     * 
+     * @param key the name of the resource
+     * @throws LookupException if an error occurs during lookup or string conversion
+     * @throws IllegalArgumentException if <tt>key</tt> is null
+     * @return the Long value of the resource named key
+     * @see #getObject
+     */
+    public final Long getLong(final String key) { 
+	return (Long)getObject(key, Long.class); 
+    }
+
+    /** 
+     * A convenience method that's shorthand for calling:
+     * <tt>getObject(key, Short.class)</tt>.  
+     * 
+     * @param key the name of the resource
+     * @throws LookupException if an error occurs during lookup or string conversion
+     * @throws IllegalArgumentException if <tt>key</tt> is null
+     * @return the Short value of the resource named key
+     * @see #getObject
+     */
+    public final Short getShort(final String key) { 
+	return (Short)getObject(key, Short.class); 
+    }
+    
+    /** 
+     * A convenience method that's shorthand for calling:
+     * <tt>getObject(key, Byte.class)</tt>.  
+     * 
+     * @param key the name of the resource
+     * @throws LookupException if an error occurs during lookup or string conversion
+     * @throws IllegalArgumentException if <tt>key</tt> is null
+     * @return the Byte value of the resource named key
+     * @see #getObject
+     */
+    public final Byte getByte(final String key) { 
+	return (Byte)getObject(key, Byte.class); 
+    }
+
+    /** 
+     * A convenience method that's shorthand for calling:
+     * <tt>getObject(key, Float.class)</tt>.  
+     * 
+     * @param key the name of the resource
+     * @throws LookupException if an error occurs during lookup or string conversion
+     * @throws IllegalArgumentException if <tt>key</tt> is null
+     * @return the Float value of the resource named key
+     * @see #getObject
+     */
+    public final Float getFloat(final String key) { 
+	return (Float)getObject(key, Float.class); 
+    }
+
+    /** 
+     * A convenience method that's shorthand for calling:
+     * <tt>getObject(key, Double.class)</tt>.  
+     * 
+     * @param key the name of the resource
+     * @throws LookupException if an error occurs during lookup or string conversion
+     * @throws IllegalArgumentException if <tt>key</tt> is null
+     * @return the Double value of the resource named key
+     * @see #getObject
+     */
+    public final Double getDouble(final String key) { 
+	return (Double)getObject(key, Double.class); 
+    }
+
+    /**
+     * Returns the int value of the resource named key, or 
+     * <tt>defaultValue</tt> if the resource isn't defined or its value
+     * is null.  The resource is converted like
+     * <tt>getObject(key, Integer.class)</tt>, but the result is cached
+     * as a primitive, so repeated calls don't allocate or repeat the
+     * lookup in this ResourceMap and its parents.  The cached value is
+     * discarded if the resources change, for example because the
+     * default locale has changed.
+     * 
+     * @param key the name of the resource
+     * @param defaultValue the value to return if the resource isn't defined
+     * @return the int value of the resource named key
+     * @throws LookupException if an error occurs during lookup or string conversion
+     * @throws IllegalArgumentException if <tt>key</tt> is null
+     * @see #getInteger
+     */
+    public final int getInt(final String key, final int defaultValue) {
+        PrimitiveValue pv = getPrimitiveValue(key, Integer.TYPE);
+        return (pv.defined) ? (int)pv.bits : defaultValue;
+    }
+
+    /**
+     * Returns the long value of the resource named key, or 
+     * <tt>defaultValue</tt> if the resource isn't defined or its value
+     * is null.  See {@link #getInt} for more information.
+     * 
+     * @param key the name of the resource
+     * @param defaultValue the value to return if the resource isn't defined
+     * @return the long value of the resource named key
+     * @throws LookupException if an error occurs during lookup or string conversion
+     * @throws IllegalArgumentException if <tt>key</tt> is null
+     * @see #getLong(String)
+     */
+    public final long getLong(final String key, final long defaultValue) {
+        PrimitiveValue pv = getPrimitiveValue(key, Long.TYPE);
+        return (pv.defined) ? pv.bits : defaultValue;
+    }
+
+    /**
+     * Returns the double value of the resource named key, or 
+     * <tt>defaultValue</tt> if the resource isn't defined or its value
+     * is null.  See {@link #getInt} for more information.
+     * 
+     * @param key the name of the resource
+     * @param defaultValue the value to return if the resource isn't defined
+     * @return the double value of the resource named key
+     * @throws LookupException if an error occurs during lookup or string conversion
+     * @throws IllegalArgumentException if <tt>key</tt> is null
+     * @see #getDouble(String)
+     */
+    public final double getDouble(final String key, final double defaultValue) {
+        PrimitiveValue pv = getPrimitiveValue(key, Double.TYPE);
+        return (pv.defined) ? Double.longBitsToDouble(pv.bits) : defaultValue;
+    }
+
+    /**
+     * Returns the boolean value of the resource named key, or 
+     * <tt>defaultValue</tt> if the resource isn't defined or its value
+     * is null.  See {@link #getInt} for more information.
+     * 
+     * @param key the name of the resource
+     * @param defaultValue the value to return if the resource isn't defined
+     * @return the boolean value of the resource named key
+     * @throws LookupException if an error occurs during lookup or string conversion
+     * @throws IllegalArgumentException if <tt>key</tt> is null
+     * @see #getBoolean(String)
+     */
+    public final boolean getBoolean(final String key, final boolean defaultValue) {
+        PrimitiveValue pv = getPrimitiveValue(key, Boolean.TYPE);
+        return (pv.defined) ? (pv.bits != 0) : defaultValue;
+    }
+
+    /**
+     * Returns the Color value of the resource named key as a packed
+     * ARGB int, see {@link Color#getRGB}, or <tt>defaultValue</tt> if 
+     * the resource isn't defined or its value is null.  See 
+     * {@link #getInt} for more information.
+     * 
+     * @param key the name of the resource
+     * @param defaultValue the value to return if the resource isn't defined
+     * @return the ARGB value of the Color resource named key
+     * @throws LookupException if an error occurs during lookup or string conversion
+     * @throws IllegalArgumentException if <tt>key</tt> is null
+     * @see #getColor
+     */
+    public final int getRGB(final String key, final int defaultValue) {
+        PrimitiveValue pv = getPrimitiveValue(key, Color.class);
+        return (pv.defined) ? (int)pv.bits : defaultValue;
+    }
+
+    /**
+     * A convenience method that's shorthand for calling:
+     * <tt>getRGB(key, 0)</tt>.  Undefined resources are transparent black.
+     * 
+     * @param key the name of the resource
+     * @return the ARGB value of the Color resource named key, or 0
+     * @throws LookupException if an error occurs during lookup or string conversion
+     * @throws IllegalArgumentException if <tt>key</tt> is null
+     * @see #getColor
+     */
+    public final int getRGB(final String key) {
+        return getRGB(key, 0);
+    }
+
+    /* A cached primitive resource value.  The value's bits are stored
+     * in a long: ints and longs as is, doubles as their raw long bits,
+     * booleans as 0 or 1, and Colors as their ARGB int.  Entries for
+     * the different types of one key form a short immutable list.  An
+     * entry is only valid while the stamp it was created with matches
+     * getResourcesStamp().
+     */
+    private static final class PrimitiveValue {
+        final Class<?> type;
+        final long stamp;
+        final boolean defined;
+        final long bits;
+        final PrimitiveValue next;
+        PrimitiveValue(Class<?> type, long stamp, boolean defined, long bits, PrimitiveValue next) {
+            this.type = type;
+            this.stamp = stamp;
+            this.defined = defined;
+            this.bits = bits;
+            this.next = next;
+        }
+    }
+
+    private PrimitiveValue getPrimitiveValue(final String key, final Class<?> type) {
+        checkNullKey(key);
+        long stamp = getResourcesStamp();
+        if (stamp != -1) {
+            for (PrimitiveValue pv = primitiveValues.get(key); pv != null; pv = pv.next) {
+                if ((pv.type == type) && (pv.stamp == stamp)) {
+                    return pv;
+                }
+            }
+        }
+        Object value = getObject(key, type);
+        long bits = 0L;
+        if (value instanceof Color) {
+            bits = ((Color)value).getRGB();
+        }
+        else if (value instanceof Double) {
+            bits = Double.doubleToRawLongBits(((Double)value).doubleValue());
+        }
+        else if (value instanceof Boolean) {
+            bits = (((Boolean)value).booleanValue()) ? 1L : 0L;
+        }
+        else if (value instanceof Number) {
+            bits = ((Number)value).longValue();
+        }
+        PrimitiveValue head = null;
+        if (stamp != -1) {
+            for (PrimitiveValue pv = primitiveValues.get(key); pv != null; pv = pv.next) {
+                if ((pv.type != type) && (pv.stamp == stamp)) {
+                    head = new PrimitiveValue(pv.type, pv.stamp, pv.defined, pv.bits, head);
+                }
+            }
+        }
+        PrimitiveValue pv = new PrimitiveValue(type, stamp, value != null, bits, head);
+        if (stamp != -1) {
+            primitiveValues.put(key, pv);
+        }
+        return pv;
+    }
+
+    /* Returns a number that changes whenever the resources of this
+     * ResourceMap or its parents might have changed: when the bundles
+     * are reloaded because the default locale changed, when a resource
+     * is put, or when a converter is registered, with a ResourceMap or 
+     * globally.  It's the sum of the generation counters of the global
+     * converter registry and the ResourceMaps in the parent chain, and
+     * computing it doesn't require locking unless a ResourceMap needs
+     * to (re)load its bundles.  Returns -1 if any of the ResourceMaps
+     * overrides the protected resource methods, since a subclass can 
+     * change its resources without updating its generation.
+     */
+    private long getResourcesStamp() {
+        Locale defaultLocale = Locale.getDefault();
+        long stamp = ResourceConverter.getRegistryGeneration() & 0xFFFFFFFFL;
+        for (ResourceMap node = this; node != null; node = node.getParent()) {
+            if (!node.primitiveValuesEnabled) {
+                return -1L;
+            }
+            if (!node.bundlesLoaded || (node.locale != defaultLocale)) {
+                node.getBundlesMap();
+            }
+            stamp += node.generation.get() & 0xFFFFFFFFL;
+        }
+        return stamp;
+    }
+
+    private static final Map<Class<?>, Boolean> overridesResourceMethods = new WeakHashMap<Class<?>, Boolean>();
+
+    /* Returns true if cls, or one of its superclasses below ResourceMap,
+     * overrides getResource, putResource, containsResourceKey, or 
+     * getResourceKeySet. 
+     */
+    private static boolean overridesResourceMethods(final Class<?> cls) {
+        synchronized (overridesResourceMethods) {
+            Boolean overrides = overridesResourceMethods.get(cls);
+            if (overrides == null) {
+                overrides = Boolean.FALSE;
+                for (Class<?> c = cls; (c != ResourceMap.class) && (c != null); c = c.getSuperclass()) {
+                    for (Method m : c.getDeclaredMethods()) {
+                        String name = m.getName();
+                        if (name.equals("getResource") || name.equals("putResource") ||
+                            name.equals("containsResourceKey") || name.equals("getResourceKeySet")) {
+                            overrides = Boolean.TRUE;
+                        }
+                    }
+                }
+                overridesResourceMethods.put(cls, overrides);
+            }
+            return overrides.booleanValue();
+        }
+    }
+
+    /**
+     * 
+     * A convenience method that's shorthand for calling:
+     * <tt>getObject(key, Icon.class)</tt>.  This method
+     * relies on the ImageIcon ResourceConverter that's registered
+     * by this class.  See {@link #getImageIcon} for more information.
+     * 
+     * 
+     * @param key the name of the resource
+     * @return the Icon value of the resource named key
+     * @see #getObject
+     * @throws LookupException if an error occurs during lookup or string conversion
+     * @throws IllegalArgumentException if <tt>key</tt> is null
+     */
+    public final Icon getIcon(final String key) { 
+	return (Icon)getObject(key, Icon.class); 
+    }
+
+    /**
+     * Returns the Icon named by the resource <tt>key</tt>, scaled to
+     * <tt>size</tt> for the default screen.  This is shorthand for 
+     * <tt>getIcon(key, size, scale)</tt>, where scale is the default
+     * screen's scale factor, or 1.0 if there's no screen.  The default
+     * screen's scale factor is only looked up once; use
+     * {@link #getIcon(String, Dimension, Component)} for icons that 
+     * are shown on other screens.
+     * 
+     * @param key the name of the resource
+     * @param size the size of the icon
+     * @return the scaled Icon value of the resource named key
+     * @see #getIcon(String, Dimension, double)
+     * @throws LookupException if an error occurs during lookup or image loading
+     * @throws IllegalArgumentException if <tt>key</tt> or <tt>size</tt> are null,
+     *   or <tt>size</tt> is empty
+     */
+    public Icon getIcon(final String key, final Dimension size) {
+        return getIcon(key, size, getDefaultDisplayScale());
+    }
+
+    /**
+     * Returns the Icon named by the resource <tt>key</tt>, scaled to
+     * <tt>size</tt> for the screen that <tt>c</tt> is shown on.  This
+     * is shorthand for <tt>getIcon(key, size, scale)</tt>, where scale
+     * is the scale factor of <tt>c</tt>'s GraphicsConfiguration, or 
+     * of the default screen if <tt>c</tt> isn't displayable yet.
+     * 
+     * @param key the name of the resource
+     * @param size the size of the icon
+     * @param c the component that will show the icon
+     * @return the scaled Icon value of the resource named key
+     * @see #getIcon(String, Dimension, double)
+     * @throws LookupException if an error occurs during lookup or image loading
+     * @throws IllegalArgumentException if <tt>key</tt>, <tt>size</tt> or 
+     *   <tt>c</tt> are null, or <tt>size</tt> is empty
+     */
+    public Icon getIcon(final String key, final Dimension size, final Component c) {
+        if (c == null) {
+            throw new IllegalArgumentException("null component");
+        }
+        GraphicsConfiguration gc = c.getGraphicsConfiguration();
+        double scale = (gc != null) ? getDisplayScale(gc) : getDefaultDisplayScale();
+        return getIcon(key, size, scale);
+    }
+
+    /**
+     * Returns the Icon named by the resource <tt>key</tt>, scaled to
+     * <tt>size</tt>.  The icon's image is <tt>size</tt> times 
+     * <tt>scale</tt> pixels, and it's drawn into <tt>size</tt>, so 
+     * that displays whose pixels are <tt>scale</tt> times smaller 
+     * get a sharp image.  
+     * <p>
+     * For a display scale larger than 1.0, images in the same 
+     * directory with a "@2x" or "@1.5x" suffix are used if they
+     * exist.  For example, if the resource is "open.png" and scale
+     * is 2.0, "open@2x.png" is used instead, if it exists.  Large 
+     * images are subsampled while they're decoded, so a large image
+     * that's shown as a small icon isn't decoded at full size.
+     * Images are found in the resources directory's {@link IconAtlas}
+     * and the {@link ImageCache}'s disk cache, like the ones loaded 
+     * by {@link #getIcon(String)}.
+     * <p>
+     * The scaled images are kept in the {@link ImageCache}, and the
+     * most recently used scaled icons are also cached per key, size 
+     * and scale.  If the resource's value isn't a String, then it's 
+     * returned as is, like {@link #getIcon(String)}.
+     * 
+     * @param key the name of the resource
+     * @param size the size of the icon
+     * @param scale the display's scale factor, for example 2.0
+     * @return the scaled Icon value of the resource named key, or null
+     *   if there's no such resource
+     * @throws LookupException if an error occurs during lookup or image loading
+     * @throws IllegalArgumentException if <tt>key</tt> or <tt>size</tt> are null,
+     *   <tt>size</tt> is empty, or scale isn't positive
+     */
+    public Icon getIcon(final String key, final Dimension size, final double scale) {
+        checkNullKey(key);
+        if (size == null) {
+            throw new IllegalArgumentException("null size");
+        }
+        if ((size.width <= 0) || (size.height <= 0)) {
+            throw new IllegalArgumentException("empty size " + size);
+        }
+        if (!(scale > 0.0)) {
+            throw new IllegalArgumentException("invalid scale " + scale);
+        }
+        ResourceMap node = getResourceNode(key);
+        if (node == null) {
+            return null;
+        }
+        if (!(node.getResource(key) instanceof String)) {
+            return getIcon(key);
+        }
+        String path = getString(key);
+        if (path == null) {
+            return null;
+        }
+        ScaledIconKey cacheKey = new ScaledIconKey(key, size.width, size.height, scale);
+        ScaledIconValue siv = scaledIcons.get(cacheKey);
+        if ((siv != null) && siv.path.equals(path)) {
+            return siv.icon;
+        }
+        Icon icon = loadScaledIcon(key, path, node, size, scale);
+        scaledIcons.put(cacheKey, new ScaledIconValue(path, icon));
+        return icon;
+    }
+
+    /* The scaledIcons key, see getIcon(String, Dimension, double).
+     */
+    private static final class ScaledIconKey {
+        private final String key;
+        private final int width;
+        private final int height;
+        private final long scaleBits;
+        ScaledIconKey(final String key, final int width, final int height, final double scale) {
+            this.key = key;
+            this.width = width;
+            this.height = height;
+            this.scaleBits = Double.doubleToLongBits(scale);
+        }
+        @Override
+        public boolean equals(final Object o) {
+            if (!(o instanceof ScaledIconKey)) {
+                return false;
+            }
+            ScaledIconKey k = (ScaledIconKey)o;
+            return (width == k.width) && (height == k.height) && 
+                (scaleBits == k.scaleBits) && key.equals(k.key);
+        }
+        @Override
+        public int hashCode() {
+            int h = key.hashCode();
+            h = (31 * h) + width;
+            h = (31 * h) + height;
+            return (31 * h) + (int)(scaleBits ^ (scaleBits >>> 32));
+        }
+    }
+
+    /* A scaled Icon and the image path it was loaded from, see
+     * getIcon(String, Dimension, double).
+     */
+    private static final class ScaledIconValue {
+        final String path;
+        final Icon icon;
+        ScaledIconValue(final String path, final Icon icon) {
+            this.path = path;
+            this.icon = icon;
+        }
+    }
+
+    /* The most recently used scaled icons.  Their images are in the
+     * ImageCache, which limits how much memory they use in total, 
+     * this just keeps the icons themselves from being recreated.
+     */
+    private static final class ScaledIconCache {
+        private static final int MAX_SIZE = 64;
+        // access ordered, so iteration starts with the least recently used
+        private final LinkedHashMap<ScaledIconKey, ScaledIconValue> icons = 
+            new LinkedHashMap<ScaledIconKey, ScaledIconValue>(16, 0.75f, true);
+        synchronized ScaledIconValue get(final ScaledIconKey key) {
+            return icons.get(key);
+        }
+        synchronized void put(final ScaledIconKey key, final ScaledIconValue value) {
+            icons.put(key, value);
+            if (icons.size() > MAX_SIZE) {
+                Iterator<ScaledIconKey> eldest = icons.keySet().iterator();
+                eldest.next();
+                eldest.remove();
+            }
+        }
+        synchronized void clear() {
+            icons.clear();
+        }
+    }
+
+    private static volatile double defaultDisplayScale = 0.0; // see getDefaultDisplayScale()
+
+    /* Returns the scale factor of the default screen, or 1.0 if 
+     * there's no screen.  It's looked up the first time it's needed.
+     */
+    private static double getDefaultDisplayScale() {
+        double scale = defaultDisplayScale;
+        if (scale == 0.0) {
+            if (GraphicsEnvironment.isHeadless()) {
+                scale = 1.0;
+            }
+            else {
+                scale = getDisplayScale(GraphicsEnvironment.getLocalGraphicsEnvironment()
+                    .getDefaultScreenDevice().getDefaultConfiguration());
+            }
+            defaultDisplayScale = scale;
+        }
+        return scale;
+    }
+
+    /* Returns the scale factor of a screen, which is only larger than 
+     * 1.0 with Java runtimes that support HiDPI displays.
+     */
+    private static double getDisplayScale(final GraphicsConfiguration gc) {
+        double scale = gc.getDefaultTransform().getScaleX();
+        return (scale > 0.0) ? scale : 1.0;
+    }
+
+    /**
+     * 
+     * A convenience method that's shorthand for calling:
+     * <tt>getObject(key, ImageIcon.class)</tt>.  This method
+     * relies on the ImageIcon ResourceConverter that's registered
      * by this class.
      * <p>
      * If the resource named <tt>key</tt> is a String, it should name
@@ -953,6 +2784,41 @@ public class ResourceMap {
         return (Dimension) getObject(key, Dimension.class);
     }
 
+    /**
+     * Returns the width of the Dimension resource named <tt>key</tt>, 
+     * or <tt>defaultValue</tt> if there's no such resource.  Unlike
+     * <tt>getDimension(key).width</tt> this never copies the Dimension.
+     * 
+     * @param key the name of the resource
+     * @param defaultValue the value returned if there's no resource named key
+     * @return the width of the Dimension resource named key
+     * @see #getDimension
+     * @see #setValueSharing
+     * @throws LookupException if an error occurs during lookup or string conversion
+     * @throws IllegalArgumentException if <tt>key</tt> is null
+     */
+    public int getWidth(final String key, final int defaultValue) {
+        Dimension d = (Dimension) getSharedObject(key, Dimension.class);
+        return (d != null) ? d.width : defaultValue;
+    }
+
+    /**
+     * Returns the height of the Dimension resource named <tt>key</tt>, 
+     * or <tt>defaultValue</tt> if there's no such resource.  See 
+     * {@link #getWidth}.
+     * 
+     * @param key the name of the resource
+     * @param defaultValue the value returned if there's no resource named key
+     * @return the height of the Dimension resource named key
+     * @see #getDimension
+     * @throws LookupException if an error occurs during lookup or string conversion
+     * @throws IllegalArgumentException if <tt>key</tt> is null
+     */
+    public int getHeight(final String key, final int defaultValue) {
+        Dimension d = (Dimension) getSharedObject(key, Dimension.class);
+        return (d != null) ? d.height : defaultValue;
+    }
+
     /** 
      * Unchecked exception thrown by {@link #injectComponent} and
      * {@link #injectComponents} when a property value specified by 
@@ -1007,20 +2873,29 @@ public class ResourceMap {
 	}
     }
 
+    /* Returns the MnemonicLabel for the String resource named key.
+     * Labels are converted once, like any other resource type, so
+     * injecting the same text into many buttons and labels doesn't 
+     * parse it again.
+     */
+    private MnemonicLabel getMnemonicLabel(final String key) {
+        MnemonicLabel label = (MnemonicLabel)getObject(key, MnemonicLabel.class);
+        return (label != null) ? label : MnemonicText.parse(null);
+    }
+
     private void injectComponentProperty(final Component component, final PropertyDescriptor pd, final String key) {
 	Method setter = pd.getWriteMethod();
 	Class type = pd.getPropertyType();
 	if ((setter != null) && (type != null) && containsKey(key)) {
-	    Object value = getObject(key, type);
             String propertyName = pd.getName();
+            // Note: this could be generalized, we could delegate 
+            // to a component property injector.
+            boolean mnemonicText = "text".equals(propertyName) &&
+                ((component instanceof AbstractButton) || (component instanceof JLabel));
+	    Object value = (mnemonicText) ? getMnemonicLabel(key) : getObject(key, type);
             try {
-                // Note: this could be generalized, we could delegate 
-                // to a component property injector.
-                if ("text".equals(propertyName) && (component instanceof AbstractButton)) {
-                    MnemonicText.configure(component, (String)value);
-                }
-                else if ("text".equals(propertyName) && (component instanceof JLabel)) {
-                    MnemonicText.configure(component, (String)value);
+                if (mnemonicText) {
+                    MnemonicText.configure(component, (MnemonicLabel)value);
                 }
                 else {
                     setter.invoke(component, value);
@@ -1046,150 +2921,631 @@ public class ResourceMap {
 	}
     }
 
-    private void injectComponentProperties(final Component component) {
-	String componentName = component.getName();
-	if (componentName != null) {
-	    /* Optimization: punt early if componentName doesn't 
-	     * appear in any componentName.propertyName resource keys
-	     */
-	    boolean matchingResourceFound = false;
-	    for(String key : keySet()) {
-                int i = key.lastIndexOf(".");
-                if ((i != -1) && componentName.equals(key.substring(0, i))) {
-		    matchingResourceFound = true;
-		    break;
-		}
-	    }
-	    if (!matchingResourceFound) {
-		return;
-	    }
-	    BeanInfo beanInfo = null;
-	    try {
-		beanInfo = Introspector.getBeanInfo(component.getClass());
- 	    }
-	    catch (IntrospectionException e) {
-		String msg = "introspection failed";
-		RuntimeException re = new PropertyInjectionException(msg, null, component, null);
-		re.initCause(e);
-		throw re;
-	    }
-	    PropertyDescriptor[] pds = beanInfo.getPropertyDescriptors();
-	    if ((pds != null) && (pds.length > 0)) {
-		for (String key : keySet()) {
-                    int i = key.lastIndexOf(".");
-                    String keyComponentName = (i == -1) ? null : key.substring(0, i);
-		    if (componentName.equals(keyComponentName)) {
-			if ((i+1) == key.length()) {  
-			    /* key has no property name suffix, e.g. "myComponentName."
-			     * This is probably a mistake.
-			     */
-			    String msg = "component resource lacks property name suffix";
-			    logger.warning(msg);
-			    break;
-			}
-			String propertyName = key.substring(i+1);
-			boolean matchingPropertyFound = false;
-			for(PropertyDescriptor pd : pds) {
-			    if (pd.getName().equals(propertyName)) {
-				injectComponentProperty(component, pd, key); 
-				matchingPropertyFound = true;
-				break;
-			    }
-			}
-			if (!matchingPropertyFound) {
-			    String msg = String.format(
-			        "[resource %s] component named %s doesn't have a property named %s",
-				key, componentName, propertyName);
-			    logger.warning(msg);
-			}
-		    }
-		}
-	    }
-	}
+    /* Lazily builds an index from component name to the keys of the
+     * componentName.propertyName resources for that component, so
+     * that injecting a component doesn't require scanning keySet().
+     */
+    private synchronized Map<String, List<String>> getComponentKeys() {
+        Set<String> keys = keySet();  // resets componentKeysP if the locale has changed
+        if (componentKeysP == null) {
+            Map<String, List<String>> componentKeys = new HashMap<String, List<String>>();
+            for (String key : keys) {
+                int i = key.lastIndexOf(".");
+                if (i != -1) {
+                    String componentName = key.substring(0, i);
+                    List<String> propertyKeys = componentKeys.get(componentName);
+                    if (propertyKeys == null) {
+                        propertyKeys = new ArrayList<String>(2);
+                        componentKeys.put(componentName, propertyKeys);
+                    }
+                    propertyKeys.add(key);
+                }
+            }
+            componentKeysP = componentKeys;
+        }
+        return componentKeysP;
+    }
+
+    private void injectComponentProperties(final Component component) {
+	String componentName = component.getName();
+	if (componentName != null) {
+            addInjectedComponent(componentName, component);
+	    /* Optimization: punt early if componentName doesn't 
+	     * appear in any componentName.propertyName resource keys
+	     */
+            List<String> keys = getComponentKeys().get(componentName);
+	    if (keys != null) {
+		injectComponentProperties(component, componentName, keys);
+	    }
+	}
+    }
+
+    private void injectComponentProperties(final Component component, final String componentName, final List<String> keys) {
+	BeanInfo beanInfo = null;
+	try {
+	    beanInfo = Introspector.getBeanInfo(component.getClass());
+	}
+	catch (IntrospectionException e) {
+	    String msg = "introspection failed";
+	    RuntimeException re = new PropertyInjectionException(msg, null, component, null);
+	    re.initCause(e);
+	    throw re;
+	}
+	PropertyDescriptor[] pds = beanInfo.getPropertyDescriptors();
+	if ((pds != null) && (pds.length > 0)) {
+	    for (String key : keys) {
+		String propertyName = key.substring(componentName.length() + 1);
+		if (propertyName.length() == 0) {
+		    /* key has no property name suffix, e.g. "myComponentName."
+		     * This is probably a mistake.
+		     */
+		    String msg = "component resource lacks property name suffix";
+		    logger.warning(msg);
+		    continue;
+		}
+		boolean matchingPropertyFound = false;
+		for(PropertyDescriptor pd : pds) {
+		    if (pd.getName().equals(propertyName)) {
+			injectComponentProperty(component, pd, key); 
+			matchingPropertyFound = true;
+			break;
+		    }
+		}
+		if (!matchingPropertyFound) {
+		    String msg = String.format(
+		        "[resource %s] component named %s doesn't have a property named %s",
+			key, componentName, propertyName);
+		    logger.warning(msg);
+		}
+	    }
+	}
+    }
+
+    /* Remember (weakly) each named component that's been injected,
+     * so that reinjectComponents() can find the ones whose resources
+     * have changed without walking the component hierarchy.
+     */
+    private void addInjectedComponent(final String componentName, final Component component) {
+        synchronized (injectedComponents) {
+            List<WeakReference<Component>> refs = injectedComponents.get(componentName);
+            if (refs == null) {
+                refs = new ArrayList<WeakReference<Component>>(1);
+                injectedComponents.put(componentName, refs);
+            }
+            for (Iterator<WeakReference<Component>> i = refs.iterator(); i.hasNext();) {
+                Component c = i.next().get();
+                if (c == component) {
+                    return;
+                }
+                else if (c == null) {
+                    i.remove();
+                }
+            }
+            refs.add(new WeakReference<Component>(component));
+        }
+        if (injectedValuesP == null) {
+            snapshotInjectedValues();
+        }
+    }
+
+    /* Records the values that components are injected with, so that 
+     * reinjectComponents() can tell which ones changed, however many
+     * times the locale changed in the meantime.
+     */
+    private synchronized void snapshotInjectedValues() {
+        if (injectedValuesP == null) {
+            injectedValuesP = getUnconvertedValues();
+        }
+    }
+
+    /* Returns the keys whose values changed since the last snapshot
+     * of the injected values, including ${key} expressions that refer
+     * to them, and takes a new snapshot.
+     */
+    private synchronized Set<String> takeChangedInjectedKeys() {
+        if (injectedValuesP == null) {
+            return Collections.emptySet();  // nothing has been injected
+        }
+        Map<String, Object> values = getUnconvertedValues();
+        Set<String> changedKeys = changedValueKeys(injectedValuesP, values);
+        if (!changedKeys.isEmpty()) {
+            addChangedExpressionKeys(changedKeys);
+        }
+        injectedValuesP = values;
+        return changedKeys;
+    }
+
+    private Map<String, Object> getUnconvertedValues() {
+        Map<String, Object> values = new HashMap<String, Object>();
+        for (String key : keySet()) {
+            values.put(key, getRawResource(key));
+        }
+        return values;
+    }
+
+    private List<Component> getInjectedComponents(final String componentName) {
+        List<Component> components = new ArrayList<Component>();
+        synchronized (injectedComponents) {
+            List<WeakReference<Component>> refs = injectedComponents.get(componentName);
+            if (refs != null) {
+                for (Iterator<WeakReference<Component>> i = refs.iterator(); i.hasNext();) {
+                    Component c = i.next().get();
+                    if (c == null) {
+                        i.remove();
+                    }
+                    else if (componentName.equals(c.getName())) {
+                        components.add(c);
+                    }
+                }
+                if (refs.isEmpty()) {
+                    injectedComponents.remove(componentName);
+                }
+            }
+        }
+        return components;
+    }
+
+    /**
+     * Set each property in <tt>target</tt> to the value of 
+     * the resource named <tt><i>componentName</i>.propertyName</tt>,
+     * where  <tt><i>componentName</i></tt> is the value of the 
+     * target component's name property, i.e. the value of
+     * <tt>target.getName()</tt>.  The type of the resource must
+     * match the type of the corresponding property.  Properties
+     * that aren't defined by a resource aren't set.
+     * <p>
+     * For example, given a button configured like this:
+     * <pre>
+     * myButton = new JButton();
+     * myButton.setName("myButton");
+     * </pre>
+     * And a ResourceBundle properties file with the following
+     * resources:
+     * <pre>
+     * myButton.text = Hello World
+     * myButton.foreground = 0, 0, 0 
+     * myButton.preferredSize = 256, 256
+     * </pre>
+     * Then <tt>injectComponent(myButton)</tt> would initialize
+     * myButton's text, foreground, and preferredSize properties
+     * to <tt>Hello World</tt>, <tt>new Color(0,0,0)</tt>, and 
+     * <tt>new Dimension(256,256)</tt> respectively.
+     * <p>
+     * This method calls {@link #getObject} to look up resources
+     * and it uses {@link Introspector#getBeanInfo} to find
+     * the target component's properties.
+     * <p>
+     * If target is null an IllegalArgumentException is thrown.  If a
+     * resource is found that matches the target component's name but
+     * the corresponding property can't be set, an (unchecked) {@link
+     * PropertyInjectionException} is thrown.
+     * 
+     * 
+     * 
+     * @param target the Component to inject
+     * @see #injectComponents
+     * @see #getObject
+     * @see ResourceConverter#forType
+     * @throws LookupException if an error occurs during lookup or string conversion
+     * @throws PropertyInjectionException if a property specified by a resource can't be set
+     * @throws IllegalArgumentException if target is null
+     */
+    public void injectComponent(final Component target) {
+	if (target == null) {
+	    throw new IllegalArgumentException("null target");
+	}
+	injectComponentProperties(target);
+    }
+
+
+    /**
+     * Applies {@link #injectComponent} to each Component in the
+     * hierarchy with root <tt>root</tt>.
+     * <p>
+     * If {@link #isLazyInjection lazyInjection} is true, the contents
+     * of menus and of hidden containers below <tt>root</tt> are
+     * injected when they're first shown, rather than right away.
+     * 
+     * @param root the root of the component hierarchy
+     * @throws PropertyInjectionException if a property specified by a resource can't be set
+     * @throws IllegalArgumentException if target is null
+     * @see #injectComponent
+     * @see #setLazyInjection
+     */
+    public void injectComponents(final Component root) {
+	injectComponent(root);
+        injectChildComponents(root);
+    }
+
+    private void injectChildComponents(final Component root) {
+	if (root instanceof JMenu) {
+	    /* Warning: we're bypassing the popupMenu here because
+	     * JMenu#getPopupMenu creates it; doesn't seem right
+	     * to do so at injection time.  Unfortunately, this
+	     * means that attempts to inject the popup menu's 
+	     * "label" property will fail.
+	     */
+	    JMenu menu = (JMenu)root;
+            if (isLazyInjection() && (menu.getMenuComponentCount() > 0)) {
+                if (!Arrays.asList(menu.getMenuListeners()).contains(deferredInjector)) {
+                    menu.addMenuListener(deferredInjector);
+                }
+            }
+            else {
+                injectMenuComponents(menu);
+            }
+	}
+	else if (root instanceof Container) {
+	    Container container = (Container)root;
+	    for(Component child : container.getComponents()) {
+                if (isLazyInjection() && !child.isVisible()) {
+                    /* Inject the child itself right away, its resources
+                     * may well include the visible property.
+                     */
+                    injectComponent(child);
+                    if (!child.isVisible() && (child instanceof Container) && (((Container)child).getComponentCount() > 0)) {
+                        if (!Arrays.asList(child.getHierarchyListeners()).contains(deferredInjector)) {
+                            child.addHierarchyListener(deferredInjector);
+                        }
+                    }
+                    else {
+                        injectChildComponents(child);
+                    }
+                }
+                else {
+                    injectComponents(child);
+                }
+	    }
+	}
+    }
+
+    private void injectMenuComponents(final JMenu menu) {
+        for(Component child : menu.getMenuComponents()) {
+            injectComponents(child);
+        }
+    }
+
+    /* Injects the contents of menus and hidden containers whose
+     * injection was deferred by injectChildComponents in lazy mode.
+     */
+    private class DeferredInjector implements HierarchyListener, MenuListener {
+        public void hierarchyChanged(final HierarchyEvent e) {
+            Component c = e.getComponent();
+            if (((e.getChangeFlags() & HierarchyEvent.SHOWING_CHANGED) != 0) && c.isShowing()) {
+                c.removeHierarchyListener(this);
+                injectChildComponents(c);
+            }
+        }
+        public void menuSelected(final MenuEvent e) {
+            JMenu menu = (JMenu)e.getSource();
+            menu.removeMenuListener(this);
+            injectMenuComponents(menu);
+        }
+        public void menuDeselected(final MenuEvent e) {
+        }
+        public void menuCanceled(final MenuEvent e) {
+        }
+    }
+
+    /**
+     * Returns true if {@link #injectComponents} defers injecting the
+     * contents of menus and hidden containers until they're shown.
+     *
+     * @return the value of the lazyInjection property
+     * @see #setLazyInjection
+     */
+    public boolean isLazyInjection() {
+        return lazyInjection;
+    }
+
+    /**
+     * If true, {@link #injectComponents} only injects the parts of
+     * the component hierarchy that can be displayed right away.  The
+     * components in a <tt>JMenu</tt> are injected when the menu is
+     * first selected, just before its popup is shown, and the
+     * children of a Container that isn't visible (for example a
+     * <tt>JTabbedPane</tt> tab that isn't selected, or a card that
+     * isn't the current <tt>CardLayout</tt> card) are injected when the
+     * container is first shown.  The hidden components themselves are
+     * injected right away.  This reduces the time it takes to show
+     * applications with very large menu bars or many tabs.
+     * <p>
+     * Resources that matter before a component is shown aren't
+     * applied until then.  For example the accelerators of menu items
+     * don't work until their menu has been opened, and preferred
+     * sizes computed before a hidden container is shown don't reflect
+     * the resources of its children.
+     * <p>
+     * The default value of this property is false.
+     *
+     * @param lazyInjection if true, defer injecting hidden components
+     * @see #isLazyInjection
+     * @see #injectComponents
+     */
+    public void setLazyInjection(final boolean lazyInjection) {
+        this.lazyInjection = lazyInjection;
+    }
+
+    /**
+     * Returns true if the Icon resources defined by this ResourceMap
+     * are loaded when they're first painted.
+     *
+     * @return the value of the lazyIcons property
+     * @see #setLazyIcons
+     */
+    public boolean isLazyIcons() {
+        return lazyIcons;
+    }
+
+    /**
+     * If true, Icon resources defined by this ResourceMap are loaded
+     * when they're first painted, rather than when they're looked up
+     * with {@link #getIcon(String)} or injected.  Until then, the Icon
+     * only reads the size of its image from the image file's header.
+     * This reduces the cost of creating windows with many icons that
+     * are rarely shown, like the icons in menus or secondary dialogs.
+     * <p>
+     * The property applies to the resources this ResourceMap defines,
+     * not those it inherits, because the converted value of a resource
+     * is shared by all of the ResourceMaps that inherit it.  Lookups
+     * for ImageIcon, rather than Icon, always load the image.  Icons
+     * whose images are already in the {@link ImageCache} aren't lazy.
+     * <p>
+     * The default value of this property is false.
+     *
+     * @param lazyIcons if true, defer loading images until they're painted
+     * @see #isLazyIcons
+     */
+    public void setLazyIcons(final boolean lazyIcons) {
+        if (this.lazyIcons != lazyIcons) {
+            this.lazyIcons = lazyIcons;
+            convertedValues.clear();
+        }
+    }
+
+    /**
+     * Applies {@link #injectComponent} to each Component in the
+     * hierarchy with root <tt>root</tt>, like {@link #injectComponents(Component)}.
+     * <p>
+     * If <tt>coalesceLayout</tt> is true, the revalidate and repaint
+     * requests that the <tt>setText</tt>, <tt>setIcon</tt>, 
+     * <tt>setFont</tt>, etc. calls make for the components in the
+     * hierarchy are suspended while it's injected.  Afterwards 
+     * <tt>root</tt> is revalidated and repainted once, if any of 
+     * them asked to be, so a window-wide change, like switching 
+     * locales or themes, is laid out in one pass and appears in a 
+     * single frame.  Requests for components outside the hierarchy 
+     * are passed on as usual.  The requests are intercepted by 
+     * temporarily replacing the current {@link RepaintManager}.
+     * <p>
+     * This method must be called on the event dispatching thread.
+     *
+     * @param root the root of the component hierarchy
+     * @param coalesceLayout if true, revalidate and repaint <tt>root</tt>
+     *   once the entire hierarchy has been injected, instead of each 
+     *   component as its properties are set
+     * @throws PropertyInjectionException if a property specified by a resource can't be set
+     * @throws IllegalArgumentException if target is null
+     * @see #injectComponents(Component)
+     */
+    public void injectComponents(final Component root, final boolean coalesceLayout) {
+        if (root == null) {
+            throw new IllegalArgumentException("null target");
+        }
+        if (!coalesceLayout) {
+            injectComponents(root);
+            return;
+        }
+        RepaintManager repaintManager = RepaintManager.currentManager(root);
+        SuspendingRepaintManager suspended = new SuspendingRepaintManager(repaintManager, root);
+        RepaintManager.setCurrentManager(suspended);
+        try {
+            injectComponents(root);
+        }
+        finally {
+            RepaintManager.setCurrentManager(repaintManager);
+        }
+        if (suspended.invalidated) {
+            if (root instanceof JComponent) {
+                ((JComponent)root).revalidate();
+            }
+            else {
+                root.validate();
+            }
+        }
+        if (suspended.invalidated || suspended.dirty) {
+            root.repaint();
+        }
+    }
+
+    /* The RepaintManager that's current while 
+     * injectComponents(Component, true) runs.  It drops the requests
+     * for the components in root's hierarchy, and just notes that 
+     * there were some, and passes the other requests on to the 
+     * RepaintManager it replaced.
+     */
+    private static final class SuspendingRepaintManager extends RepaintManager {
+        private final RepaintManager delegate;
+        private final Component root;
+        volatile boolean invalidated = false;
+        volatile boolean dirty = false;
+
+        SuspendingRepaintManager(final RepaintManager delegate, final Component root) {
+            this.delegate = delegate;
+            this.root = root;
+        }
+
+        private boolean isSuspended(final Component c) {
+            return SwingUtilities.isDescendingFrom(c, root);
+        }
+
+        @Override
+        public synchronized void addInvalidComponent(final JComponent c) {
+            if (isSuspended(c)) {
+                invalidated = true;
+            }
+            else {
+                delegate.addInvalidComponent(c);
+            }
+        }
+
+        @Override
+        public synchronized void removeInvalidComponent(final JComponent c) {
+            delegate.removeInvalidComponent(c);
+        }
+
+        @Override
+        public void addDirtyRegion(final JComponent c, final int x, final int y, final int w, final int h) {
+            if (isSuspended(c)) {
+                dirty = true;
+            }
+            else {
+                delegate.addDirtyRegion(c, x, y, w, h);
+            }
+        }
+
+        @Override
+        public void markCompletelyDirty(final JComponent c) {
+            if (isSuspended(c)) {
+                dirty = true;
+            }
+            else {
+                delegate.markCompletelyDirty(c);
+            }
+        }
     }
 
     /**
-     * Set each property in <tt>target</tt> to the value of 
-     * the resource named <tt><i>componentName</i>.propertyName</tt>,
-     * where  <tt><i>componentName</i></tt> is the value of the 
-     * target component's name property, i.e. the value of
-     * <tt>target.getName()</tt>.  The type of the resource must
-     * match the type of the corresponding property.  Properties
-     * that aren't defined by a resource aren't set.
-     * <p>
-     * For example, given a button configured like this:
-     * <pre>
-     * myButton = new JButton();
-     * myButton.setName("myButton");
-     * </pre>
-     * And a ResourceBundle properties file with the following
-     * resources:
-     * <pre>
-     * myButton.text = Hello World
-     * myButton.foreground = 0, 0, 0 
-     * myButton.preferredSize = 256, 256
-     * </pre>
-     * Then <tt>injectComponent(myButton)</tt> would initialize
-     * myButton's text, foreground, and preferredSize properties
-     * to <tt>Hello World</tt>, <tt>new Color(0,0,0)</tt>, and 
-     * <tt>new Dimension(256,256)</tt> respectively.
+     * Injects the hierarchy with root <tt>root</tt>, like
+     * {@link #injectComponents(Component)}, and then keeps injecting
+     * components as they're added to it.  A {@link ContainerListener}
+     * is added to each Container in the hierarchy, and when a
+     * component is added only the new subtree is injected (and
+     * attached), so the cost is proportional to what was added
+     * rather than to the size of the window.
      * <p>
-     * This method calls {@link #getObject} to look up resources
-     * and it uses {@link Introspector#getBeanInfo} to find
-     * the target component's properties.
-     * <p>
-     * If target is null an IllegalArgumentException is thrown.  If a
-     * resource is found that matches the target component's name but
-     * the corresponding property can't be set, an (unchecked) {@link
-     * PropertyInjectionException} is thrown.
-     * 
-     * 
-     * 
-     * @param target the Component to inject
-     * @see #injectComponents
-     * @see #getObject
-     * @see ResourceConverter#forType
-     * @throws LookupException if an error occurs during lookup or string conversion
+     * Menu items are tracked through the popup menu of each
+     * <tt>JMenu</tt> that already has menu items when it's attached.
+     * Items added to an empty menu later on are not injected
+     * automatically.
+     *
+     * @param root the root of the component hierarchy
      * @throws PropertyInjectionException if a property specified by a resource can't be set
-     * @throws IllegalArgumentException if target is null
+     * @throws IllegalArgumentException if root is null
+     * @see #detachComponents
+     * @see #injectComponents
      */
-    public void injectComponent(final Component target) {
-	if (target == null) {
-	    throw new IllegalArgumentException("null target");
-	}
-	injectComponentProperties(target);
+    public void attachComponents(final Container root) {
+        if (root == null) {
+            throw new IllegalArgumentException("null root");
+        }
+        injectComponents(root);
+        addComponentAttacher(root);
     }
 
-
     /**
-     * Applies {@link #injectComponent} to each Component in the
-     * hierarchy with root <tt>root</tt>.
-     * 
+     * Stops injecting components that are added to the hierarchy with
+     * root <tt>root</tt>, by removing the listeners that were added by
+     * {@link #attachComponents}.
+     *
      * @param root the root of the component hierarchy
+     * @throws IllegalArgumentException if root is null
+     * @see #attachComponents
+     */
+    public void detachComponents(final Container root) {
+        if (root == null) {
+            throw new IllegalArgumentException("null root");
+        }
+        removeComponentAttacher(root);
+    }
+
+    private Container attachableContainer(final Component c) {
+        if (c instanceof JMenu) {
+            /* Don't create the popup menu just to listen to it,
+             * see injectComponents.
+             */
+            JMenu menu = (JMenu)c;
+            return (menu.getMenuComponentCount() > 0) ? menu.getPopupMenu() : null;
+        }
+        return (c instanceof Container) ? (Container)c : null;
+    }
+
+    private void addComponentAttacher(final Component c) {
+        Container container = attachableContainer(c);
+        if (container != null) {
+            if (!Arrays.asList(container.getContainerListeners()).contains(componentAttacher)) {
+                container.addContainerListener(componentAttacher);
+            }
+            for (Component child : container.getComponents()) {
+                addComponentAttacher(child);
+            }
+        }
+    }
+
+    private void removeComponentAttacher(final Component c) {
+        Container container = attachableContainer(c);
+        if (container != null) {
+            container.removeContainerListener(componentAttacher);
+            for (Component child : container.getComponents()) {
+                removeComponentAttacher(child);
+            }
+        }
+    }
+
+    private class ComponentAttacher implements ContainerListener {
+        public void componentAdded(final ContainerEvent e) {
+            Component child = e.getChild();
+            injectComponents(child);
+            addComponentAttacher(child);
+        }
+        public void componentRemoved(final ContainerEvent e) {
+            // the subtree may be added to a hierarchy this isn't attached to
+            removeComponentAttacher(e.getChild());
+        }
+    }
+
+    /**
+     * Re-applies the resources whose values have changed since 
+     * components were injected, or last reinjected, to the
+     * components that have been injected by this ResourceMap.  The
+     * changes from every locale switch in the meantime are included,
+     * not just the ones from the last switch, see
+     * {@link #getChangedKeys}.  Only
+     * the properties named by the changed keys are set and only the
+     * components with matching names are visited, so the cost of
+     * a locale switch is proportional to the number of resources that
+     * changed rather than to the size of the user interface.
+     * <p>
+     * Components are tracked by name with weak references when they're
+     * injected with {@link #injectComponent} or
+     * {@link #injectComponents}.  Resources that were removed by the
+     * locale change are ignored, the corresponding properties keep
+     * their current values.
+     *
+     * @throws LookupException if an error occurs during lookup or string conversion
      * @throws PropertyInjectionException if a property specified by a resource can't be set
-     * @throws IllegalArgumentException if target is null
-     * @see #injectComponent
+     * @see #getChangedKeys
+     * @see #injectComponents
      */
-    public void injectComponents(final Component root) {
-	injectComponent(root);
-	if (root instanceof JMenu) {
-	    /* Warning: we're bypassing the popupMenu here because
-	     * JMenu#getPopupMenu creates it; doesn't seem right
-	     * to do so at injection time.  Unfortunately, this
-	     * means that attempts to inject the popup menu's 
-	     * "label" property will fail.
-	     */
-	    JMenu menu = (JMenu)root;
-	    for(Component child : menu.getMenuComponents()) {
-		injectComponents(child);
-	    }
-	}
-	else if (root instanceof Container) {
-	    Container container = (Container)root;
-	    for(Component child : container.getComponents()) {
-		injectComponents(child);
-	    }
-	}
+    public void reinjectComponents() {
+        Map<String, List<String>> changedComponentKeys = new HashMap<String, List<String>>();
+        for (String key : takeChangedInjectedKeys()) {
+            int i = key.lastIndexOf(".");
+            if ((i != -1) && containsKey(key)) {
+                String componentName = key.substring(0, i);
+                List<String> keys = changedComponentKeys.get(componentName);
+                if (keys == null) {
+                    keys = new ArrayList<String>(2);
+                    changedComponentKeys.put(componentName, keys);
+                }
+                keys.add(key);
+            }
+        }
+        for (Map.Entry<String, List<String>> entry : changedComponentKeys.entrySet()) {
+            for (Component component : getInjectedComponents(entry.getKey())) {
+                injectComponentProperties(component, entry.getKey(), entry.getValue());
+            }
+        }
     }
 
     /** 
@@ -1365,6 +3721,7 @@ public class ResourceMap {
 	ResourceConverter[] stringConverters = {
 	    new ColorStringConverter(),
 	    new IconStringConverter(),
+	    new ImageIconStringConverter(),
 	    new ImageStringConverter(),
 	    new FontStringConverter(),
 	    new KeyStrokeStringConverter(),
@@ -1372,7 +3729,8 @@ public class ResourceMap {
             new PointStringConverter(),
             new RectangleStringConverter(),
             new InsetsStringConverter(),
-            new EmptyBorderStringConverter()
+            new EmptyBorderStringConverter(),
+            new MnemonicLabelStringConverter()
 	};
 	for (ResourceConverter sc : stringConverters) {
 	    ResourceConverter.register(sc);
@@ -1396,7 +3754,7 @@ public class ResourceMap {
 	return rPath;
     }
 
-    private static ImageIcon loadImageIcon(final String s, final ResourceMap resourceMap)
+    private static URL imageURL(final String s, final ResourceMap resourceMap)
         throws ResourceConverterException 
     {
 	String rPath = resourcePath(s, resourceMap);
@@ -1404,14 +3762,254 @@ public class ResourceMap {
 	    String msg = String.format("invalid image/icon path \"%s\"", s);
 	    throw new ResourceConverterException(msg, s);
 	}
-	URL url = resourceMap.getClassLoader().getResource(rPath);
-	if (url != null) {
-	    return new ImageIcon(url);
-	}
-	else {
+	URL url = ResourceIndex.forClassLoader(resourceMap.getClassLoader()).getResource(rPath);
+	if (url == null) {
 	    String msg = String.format("couldn't find Icon resource \"%s\"", s);
 	    throw new ResourceConverterException(msg, s);
 	}
+        return url;
+    }
+
+    private static ImageIcon loadImageIcon(final String s, final ResourceMap resourceMap)
+        throws ResourceConverterException 
+    {
+        ImageIcon icon = atlasIcon(s, resourceMap);
+        return (icon != null) ? icon : loadImageIcon(imageURL(s, resourceMap));
+    }
+
+    /* Returns the icon for a relative path from the resources 
+     * directory's IconAtlas, or null if there's no atlas or it 
+     * doesn't contain the icon.
+     */
+    private static ImageIcon atlasIcon(final String s, final ResourceMap resourceMap) {
+        if ((s == null) || s.startsWith("/") || (s.length() == 0)) {
+            return null;
+        }
+        IconAtlas atlas = IconAtlas.forDirectory(resourceMap.getClassLoader(), resourceMap.getResourcesDir());
+        return atlas.getIcon(s);
+    }
+
+    /* Returns the ImageIcon for url from the ImageCache, or loads it 
+     * and adds it to the cache.
+     */
+    static ImageIcon loadImageIcon(final URL url) {
+        ImageCache cache = ImageCache.getInstance();
+        String urlString = url.toExternalForm();
+        ImageIcon icon = cache.get(urlString);
+        if (icon == null) {
+            icon = createImageIcon(url);
+            cache.put(urlString, icon);
+        }
+        return icon;
+    }
+
+    /* Loads the image named by path, the value of key in node, for
+     * getIcon(String, Dimension, double).  A "@2x" or "@1.5x" variant 
+     * is used if there is one, otherwise the image from the resources
+     * directory's IconAtlas, or the image itself.  The scaled image is
+     * cached in the ImageCache, keyed by the source image's URL and 
+     * the scaled size.
+     */
+    private static Icon loadScaledIcon(final String key, final String path, final ResourceMap node, 
+                                       final Dimension size, final double scale) {
+	String rPath = resourcePath(path, node);
+	if (rPath == null) {
+	    String msg = String.format("invalid image/icon path \"%s\"", path);
+	    throw new LookupException(msg, key, Icon.class);
+	}
+        ResourceIndex resources = ResourceIndex.forClassLoader(node.getClassLoader());
+        URL url = null;
+        for (String variant : imageVariants(scale)) {
+            url = resources.getResource(variantPath(rPath, variant));
+            if (url != null) {
+                break;
+            }
+        }
+        ImageIcon atlasIcon = (url == null) ? atlasIcon(path, node) : null;
+        if ((url == null) && (atlasIcon == null)) {
+            url = resources.getResource(rPath);
+            if (url == null) {
+                String msg = String.format("couldn't find Icon resource \"%s\"", path);
+                throw new LookupException(msg, key, Icon.class);
+            }
+        }
+        int width = (int)Math.ceil(size.width * scale);
+        int height = (int)Math.ceil(size.height * scale);
+        ImageCache cache = ImageCache.getInstance();
+        String source = (atlasIcon != null) ? atlasIcon.getDescription() : url.toExternalForm();
+        String imageKey = source + "@" + width + "x" + height;
+        ImageIcon scaledImage = cache.get(imageKey);
+        if (scaledImage == null) {
+            Image image;
+            if (atlasIcon != null) {
+                image = atlasIcon.getImage();
+            }
+            else if (cache.getDiskCache() != null) {
+                image = loadImageIcon(url).getImage();
+            }
+            else {
+                try {
+                    image = readSubsampledImage(url, width, height);
+                }
+                catch (IOException e) {
+                    String msg = String.format("couldn't read Icon resource \"%s\"", path);
+                    LookupException lfe = new LookupException(msg, key, Icon.class);
+                    lfe.initCause(e);
+                    throw lfe;
+                }
+                if (image == null) { // no ImageReader for url, let ImageIcon try
+                    image = new ImageIcon(url).getImage();
+                }
+            }
+            scaledImage = new ImageIcon(scaleImage(image, width, height), imageKey);
+            cache.put(imageKey, scaledImage);
+        }
+        return new ScaledIcon(scaledImage.getImage(), size.width, size.height);
+    }
+
+    /* The suffixes of the image variants for a display scale, 
+     * best first.
+     */
+    private static String[] imageVariants(final double scale) {
+        if (scale > 1.5) {
+            return new String[] { "@2x", "@1.5x" };
+        }
+        else if (scale > 1.0) {
+            return new String[] { "@1.5x", "@2x" };
+        }
+        return new String[0];
+    }
+
+    /* Inserts variant before the path's file extension:
+     * "icons/open.png" => "icons/open@2x.png".
+     */
+    private static String variantPath(final String path, final String variant) {
+        int dot = path.lastIndexOf('.');
+        if ((dot == -1) || (dot < path.lastIndexOf('/'))) {
+            return path + variant;
+        }
+        return path.substring(0, dot) + variant + path.substring(dot);
+    }
+
+    /* Decodes the image at url with ImageIO, skipping rows and columns
+     * so that it's no smaller than width x height.  Returns null if 
+     * there's no ImageReader for the image.
+     */
+    private static BufferedImage readSubsampledImage(final URL url, final int width, final int height) 
+        throws IOException 
+    {
+        InputStream stream = url.openStream();
+        try {
+            ImageInputStream in = ImageIO.createImageInputStream(stream);
+            if (in == null) {
+                return null;
+            }
+            try {
+                Iterator<ImageReader> readers = ImageIO.getImageReaders(in);
+                if (!readers.hasNext()) {
+                    return null;
+                }
+                ImageReader reader = readers.next();
+                try {
+                    reader.setInput(in, true, true);
+                    ImageReadParam param = reader.getDefaultReadParam();
+                    int xSubsampling = Math.max(1, reader.getWidth(0) / width);
+                    int ySubsampling = Math.max(1, reader.getHeight(0) / height);
+                    param.setSourceSubsampling(xSubsampling, ySubsampling, 0, 0);
+                    return reader.read(0, param);
+                }
+                finally {
+                    reader.dispose();
+                }
+            }
+            finally {
+                in.close();
+            }
+        }
+        finally {
+            stream.close();
+        }
+    }
+
+    /* Returns image scaled to exactly width x height, with bilinear 
+     * interpolation, or image itself if it's already that size.
+     */
+    private static Image scaleImage(final Image image, final int width, final int height) {
+        if ((image.getWidth(null) == width) && (image.getHeight(null) == height)) {
+            return image;
+        }
+        BufferedImage scaled = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+        Graphics2D g = scaled.createGraphics();
+        try {
+            g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            g.drawImage(image, 0, 0, width, height, null);
+        }
+        finally {
+            g.dispose();
+        }
+        return scaled;
+    }
+
+    /* ImageIcon(URL) waits for its image with a MediaTracker that's 
+     * shared by all ImageIcons, while holding the MediaTracker's lock,
+     * so images loaded by different threads are decoded one at a time.
+     * Images that ImageIO can read are decoded without it, or read from
+     * the ImageCache's disk cache.  GIFs are still loaded by ImageIcon 
+     * because they may be animated.
+     */
+    private static ImageIcon createImageIcon(final URL url) {
+        String path = url.getPath();
+        if (!path.regionMatches(true, path.length() - 4, ".gif", 0, 4)) {
+            try {
+                RasterFileCache diskCache = ImageCache.getInstance().getDiskCache();
+                BufferedImage image = (diskCache != null) ? diskCache.read(url) : ImageIO.read(url);
+                if (image != null) {
+                    return new ImageIcon(toCompatibleImage(image), url.toExternalForm());
+                }
+            }
+            catch (IOException e) {
+                // let ImageIcon try
+            }
+        }
+        return new ImageIcon(url);
+    }
+
+    /* ImageIO returns whatever image type is closest to the file's
+     * format, e.g. TYPE_CUSTOM for many PNGs, and Java2D draws those
+     * with its slow, generic loops.  Those images are copied into one
+     * that's compatible with the screen, or a standard INT RGB one 
+     * when there's no screen.
+     */
+    private static BufferedImage toCompatibleImage(final BufferedImage image) {
+        switch (image.getType()) {
+        case BufferedImage.TYPE_INT_ARGB:
+        case BufferedImage.TYPE_INT_ARGB_PRE:
+        case BufferedImage.TYPE_INT_RGB:
+            return image;
+        default:
+            break;
+        }
+        int width = image.getWidth();
+        int height = image.getHeight();
+        int transparency = image.getColorModel().getTransparency();
+        BufferedImage compatible;
+        if (GraphicsEnvironment.isHeadless()) {
+            int type = (transparency == Transparency.OPAQUE) ? BufferedImage.TYPE_INT_RGB : BufferedImage.TYPE_INT_ARGB;
+            compatible = new BufferedImage(width, height, type);
+        }
+        else {
+            GraphicsConfiguration gc = GraphicsEnvironment.getLocalGraphicsEnvironment()
+                .getDefaultScreenDevice().getDefaultConfiguration();
+            compatible = gc.createCompatibleImage(width, height, transparency);
+        }
+        Graphics2D g = compatible.createGraphics();
+        try {
+            g.drawImage(image, 0, 0, null);
+        }
+        finally {
+            g.dispose();
+        }
+        return compatible;
     }
 
     private static class FontStringConverter extends ResourceConverter {
@@ -1425,12 +4023,20 @@ public class ResourceMap {
 	public Object parseString(final String s, final ResourceMap ignore) throws ResourceConverterException {
 	    return Font.decode(s);
 	}
+        @Override
+        public boolean isImmutable() {
+            return true;
+        }
     }
 
     private static class ColorStringConverter extends ResourceConverter {
 	ColorStringConverter() {
 	    super(Color.class);
 	}
+        @Override
+        public boolean isImmutable() {
+            return true;
+        }
 	private void error(final String msg, final String s, final Exception e) throws ResourceConverterException  {
 	    throw new ResourceConverterException(msg, s, e);
 	}
@@ -1446,48 +4052,43 @@ public class ResourceMap {
 	 */
 	@Override
 	public Object parseString(final String s, final ResourceMap ignore) throws ResourceConverterException {
-	    Color color = null;
 	    if (s.startsWith("#")) {
-		switch (s.length()) {
-		    // RGB/hex color
-		case 7:
-		    color = Color.decode(s);
-		    break;
-		    // ARGB/hex color
-		case 9:
-		    int alpha = Integer.decode(s.substring(0, 3));
-		    int rgb = Integer.decode("#" + s.substring(3));
-		    color = new Color(alpha << 24 | rgb, true);
-		    break;
-		default:
-		    throw new ResourceConverterException("invalid #RRGGBB or #AARRGGBB color string", s);
-		}
+                StringScanner scanner = new StringScanner(s, 1, s.length());
+                try {
+                    switch (s.length()) {
+                        // RGB/hex color
+                    case 7:
+                        return new Color(scanner.nextHex(6));
+                        // ARGB/hex color
+                    case 9:
+                        return new Color(scanner.nextHex(8), true);
+                    default:
+                        break;
+                    }
+                }
+                catch (NumberFormatException e) {
+                    throw new ResourceConverterException("invalid #RRGGBB or #AARRGGBB color string", s, e);
+                }
+                throw new ResourceConverterException("invalid #RRGGBB or #AARRGGBB color string", s);
 	    } 
 	    else {
-		String[] parts = s.split(",");
-		if (parts.length < 3 || parts.length > 4) {
-		    throw new ResourceConverterException("invalid R, G, B[, A] color string", s);
-		}
+                StringScanner scanner = new StringScanner(s);
 		try {
-		    // with alpha component
-		    if (parts.length == 4) {
-			int r = Integer.parseInt(parts[0].trim());
-			int g = Integer.parseInt(parts[1].trim());
-			int b = Integer.parseInt(parts[2].trim());
-			int a = Integer.parseInt(parts[3].trim());
-			color = new Color(r, g, b, a);
-		    } else {
-			int r = Integer.parseInt(parts[0].trim());
-			int g = Integer.parseInt(parts[1].trim());
-			int b = Integer.parseInt(parts[2].trim());
-			color = new Color(r, g, b);
-		    }
+                    int r = nextInt(scanner, false);
+                    int g = nextInt(scanner, false);
+                    int b = scanner.skipWhitespace().nextInt();
+                    if (scanner.skipWhitespace().atEnd()) {
+                        return new Color(r, g, b);
+                    }
+                    // with alpha component
+                    scanner.expect(',');
+                    int a = nextInt(scanner, true);
+                    return new Color(r, g, b, a);
 		} 
 		catch (NumberFormatException e) {
 		    throw new ResourceConverterException("invalid R, G, B[, A] color string", s, e);
 		}
 	    }
-	    return color;
 	}
     }
 
@@ -1495,13 +4096,26 @@ public class ResourceMap {
 	IconStringConverter() {
 	    super(Icon.class);
 	}
+        /* Icons can be LazyIcons, ImageIcons are always loaded right 
+         * away, see ImageIconStringConverter.
+         */
 	@Override
 	public Object parseString(final String s, final ResourceMap resourceMap) throws ResourceConverterException {
+            if (resourceMap.isLazyIcons()) {
+                ImageIcon icon = atlasIcon(s, resourceMap);
+                return (icon != null) ? icon : LazyIcon.create(imageURL(s, resourceMap));
+            }
 	    return loadImageIcon(s, resourceMap);
 	}
+    }
+
+    private static class ImageIconStringConverter extends ResourceConverter {
+	ImageIconStringConverter() {
+	    super(ImageIcon.class);
+	}
 	@Override
-	public boolean supportsType(final Class testType) {
-	    return testType.equals(Icon.class) || testType.equals(ImageIcon.class);
+	public Object parseString(final String s, final ResourceMap resourceMap) throws ResourceConverterException {
+	    return loadImageIcon(s, resourceMap);
 	}
     }
 
@@ -1516,41 +4130,87 @@ public class ResourceMap {
     }
 
     private static class KeyStrokeStringConverter extends ResourceConverter {
+	private static final String SHORTCUT = "shortcut";
+        private volatile String shortcutModifier = null;  // "meta" or "control", see shortcutModifier()
 	KeyStrokeStringConverter() {
 	    super(KeyStroke.class);
 	}
 	@Override
-	public Object parseString(String s, final ResourceMap ignore) {
-            if (s.contains("shortcut")) {
+	public Object parseString(final String s, final ResourceMap ignore) {
+            int i = s.indexOf(SHORTCUT);
+            if (i == -1) {
+                return KeyStroke.getKeyStroke(s);
+            }
+            String modifier = shortcutModifier();
+            StringBuilder sb = new StringBuilder(s.length());
+            int i0 = 0;
+            do {
+                sb.append(s, i0, i).append(modifier);
+                i0 = i + SHORTCUT.length();
+            } while ((i = s.indexOf(SHORTCUT, i0)) != -1);
+            sb.append(s, i0, s.length());
+	    return KeyStroke.getKeyStroke(sb.toString());
+	}
+        @Override
+        public boolean isImmutable() {
+            return true;
+        }
+        /* The menu shortcut key doesn't change, so the Toolkit is only
+         * asked once.
+         */
+        private String shortcutModifier() {
+            String modifier = shortcutModifier;
+            if (modifier == null) {
                 int k = Toolkit.getDefaultToolkit().getMenuShortcutKeyMask();
-                s = s.replaceAll("shortcut", (k == Event.META_MASK) ? "meta" : "control");
+                modifier = (k == Event.META_MASK) ? "meta" : "control";
+                shortcutModifier = modifier;
             }
-	    return KeyStroke.getKeyStroke(s);
+            return modifier;
+        }
+    }
+
+    private static class MnemonicLabelStringConverter extends ResourceConverter {
+	MnemonicLabelStringConverter() {
+	    super(MnemonicLabel.class);
+	}
+	/* Parses a marked label string like "Save &As", see MnemonicText.
+	 */
+	@Override
+	public Object parseString(final String s, final ResourceMap ignore) {
+	    return MnemonicText.parse(s);
 	}
     }
 
-    /* String s is assumed to contain n number substrings separated by
-     * commas.  Return a list of those integers or null if there are too
-     * many, too few, or if a substring can't be parsed.  The format
-     * of the numbers is specified by Double.valueOf().
+    /* Returns the next number in a comma separated list, and skips 
+     * the comma that follows it, or checks that it's the last one.  
+     * Whitespace around the number is ignored.  The format of the 
+     * numbers is specified by Double.valueOf().
      */
-    private static List<Double> parseDoubles(final String s, final int n, final String errorMsg) throws ResourceConverterException {
-        String[] doubleStrings = s.split(",", n + 1);
-        if (doubleStrings.length != n) {
-            throw new ResourceConverterException(errorMsg, s);
+    private static double nextDouble(final StringScanner scanner, final boolean last) {
+        double value = scanner.skipWhitespace().nextDouble();
+        scanner.skipWhitespace();
+        if (last) {
+            scanner.expectEnd();
         }
         else {
-            List<Double> doubles = new ArrayList<Double>(n);
-            for(String doubleString : doubleStrings) {
-                try {
-                    doubles.add(Double.valueOf(doubleString));
-                }
-                catch(NumberFormatException e) {
-                    throw new ResourceConverterException(errorMsg, s, e);
-                }
-            }
-            return doubles;
+            scanner.expect(',');
+        }
+        return value;
+    }
+
+    /* Like nextDouble() for ints, the format is specified by 
+     * Integer.parseInt().
+     */
+    private static int nextInt(final StringScanner scanner, final boolean last) {
+        int value = scanner.skipWhitespace().nextInt();
+        scanner.skipWhitespace();
+        if (last) {
+            scanner.expectEnd();
+        }
+        else {
+            scanner.expect(',');
         }
+        return value;
     }
 
     private static class DimensionStringConverter extends ResourceConverter {
@@ -1558,10 +4218,15 @@ public class ResourceMap {
 	    super(Dimension.class);
 	}
 	@Override public Object parseString(final String s, final ResourceMap ignore) throws ResourceConverterException {
-            List<Double> xy = parseDoubles(s, 2, "invalid x,y Dimension string");
-            Dimension d = new Dimension();
-            d.setSize(xy.get(0), xy.get(1));
-            return d;
+            StringScanner scanner = new StringScanner(s);
+            try {
+                Dimension d = new Dimension();
+                d.setSize(nextDouble(scanner, false), nextDouble(scanner, true));
+                return d;
+            }
+            catch (NumberFormatException e) {
+                throw new ResourceConverterException("invalid x,y Dimension string", s, e);
+            }
 	}
     }
 
@@ -1570,10 +4235,15 @@ public class ResourceMap {
 	    super(Point.class);
 	}
 	@Override public Object parseString(final String s, final ResourceMap ignore)  throws ResourceConverterException {
-            List<Double> xy = parseDoubles(s, 2, "invalid x,y Point string");
-            Point p = new Point();
-            p.setLocation(xy.get(0), xy.get(1));
-            return p;
+            StringScanner scanner = new StringScanner(s);
+            try {
+                Point p = new Point();
+                p.setLocation(nextDouble(scanner, false), nextDouble(scanner, true));
+                return p;
+            }
+            catch (NumberFormatException e) {
+                throw new ResourceConverterException("invalid x,y Point string", s, e);
+            }
 	}
     }
 
@@ -1582,10 +4252,16 @@ public class ResourceMap {
 	    super(Rectangle.class);
 	}
 	@Override public Object parseString(final String s, final ResourceMap ignore) throws ResourceConverterException {
-            List<Double> xywh = parseDoubles(s, 4, "invalid x,y,width,height Rectangle string");
-            Rectangle r = new Rectangle();
-            r.setFrame(xywh.get(0), xywh.get(1), xywh.get(2), xywh.get(3));
-            return r;
+            StringScanner scanner = new StringScanner(s);
+            try {
+                Rectangle r = new Rectangle();
+                r.setFrame(nextDouble(scanner, false), nextDouble(scanner, false), 
+                           nextDouble(scanner, false), nextDouble(scanner, true));
+                return r;
+            }
+            catch (NumberFormatException e) {
+                throw new ResourceConverterException("invalid x,y,width,height Rectangle string", s, e);
+            }
 	}
     }
 
@@ -1594,8 +4270,14 @@ public class ResourceMap {
 	    super(Insets.class);
 	}
 	@Override public Object parseString(final String s, final ResourceMap ignore) throws ResourceConverterException {
-            List<Double> tlbr = parseDoubles(s, 4, "invalid top,left,bottom,right Insets string");
-            return new Insets(tlbr.get(0).intValue(), tlbr.get(1).intValue(), tlbr.get(2).intValue(), tlbr.get(3).intValue());
+            StringScanner scanner = new StringScanner(s);
+            try {
+                return new Insets((int)nextDouble(scanner, false), (int)nextDouble(scanner, false), 
+                                  (int)nextDouble(scanner, false), (int)nextDouble(scanner, true));
+            }
+            catch (NumberFormatException e) {
+                throw new ResourceConverterException("invalid top,left,bottom,right Insets string", s, e);
+            }
 	}
     }
 
@@ -1603,9 +4285,22 @@ public class ResourceMap {
 	EmptyBorderStringConverter() {
 	    super(EmptyBorder.class);
 	}
+        /* EmptyBorder's insets are protected, so they can only be 
+         * changed by a subclass.
+         */
+        @Override
+        public boolean isImmutable() {
+            return true;
+        }
 	@Override public Object parseString(final String s, final ResourceMap ignore) throws ResourceConverterException {
-            List<Double> tlbr = parseDoubles(s, 4, "invalid top,left,bottom,right EmptyBorder string");
-            return new EmptyBorder(tlbr.get(0).intValue(), tlbr.get(1).intValue(), tlbr.get(2).intValue(), tlbr.get(3).intValue());
+            StringScanner scanner = new StringScanner(s);
+            try {
+                return new EmptyBorder((int)nextDouble(scanner, false), (int)nextDouble(scanner, false), 
+                                       (int)nextDouble(scanner, false), (int)nextDouble(scanner, true));
+            }
+            catch (NumberFormatException e) {
+                throw new ResourceConverterException("invalid top,left,bottom,right EmptyBorder string", s, e);
+            }
 	}
     }
 }
@@ -0,0 +1,57 @@
+/*
+ * Copyright (C) 2010 Douglas Teoh. Use is subject to license terms.
+ */
+
+package org.jdesktop.application;
+
+import java.awt.Component;
+import java.awt.Graphics;
+import java.awt.Image;
+
+import javax.swing.Icon;
+
+/**
+ * An internal, immutable Icon whose image may have more pixels than the
+ * icon's size, for displays that are scaled. The image is drawn into the
+ * icon's bounds, so a scaled Graphics uses all of its pixels.
+ *
+ * @see ResourceMap#getIcon(String, java.awt.Dimension)
+ */
+final class ScaledIcon implements Icon {
+    private final Image image;
+    private final int width;
+    private final int height;
+
+    ScaledIcon(final Image image, final int width, final int height) {
+        this.image = image;
+        this.width = width;
+        this.height = height;
+    }
+
+    /**
+     * @return the image, which may be larger than the icon
+     */
+    Image getImage() {
+        return image;
+    }
+
+    public int getIconWidth() {
+        return width;
+    }
+
+    public int getIconHeight() {
+        return height;
+    }
+
+    public void paintIcon(final Component c, final Graphics g, final int x,
+            final int y) {
+        g.drawImage(image, x, y, width, height, c);
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getName() + "[" + width + "x" + height + ", "
+                + image.getWidth(null) + "x" + image.getHeight(null)
+                + " pixels]";
+    }
+}
@@ -0,0 +1,169 @@
+package com.dteoh.treasuremap;
+
+import java.awt.Color;
+import java.awt.Image;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.Properties;
+
+import javax.imageio.ImageIO;
+import javax.swing.Icon;
+import javax.swing.ImageIcon;
+
+import junit.framework.TestCase;
+
+import org.jdesktop.application.IconAtlas;
+import org.jdesktop.application.ImageCache;
+import org.jdesktop.application.ResourceMap;
+
+/**
+ * Tests for the icon atlas builder.
+ *
+ * @author Douglas Teoh
+ *
+ */
+public class IconAtlasBuilderTest extends TestCase {
+
+    private File root;
+    private File resourcesDir;
+
+    @Override
+    protected void setUp() throws Exception {
+        root = File.createTempFile("atlas", "");
+        root.delete();
+        resourcesDir = new File(root, "p/resources");
+        assertTrue(new File(resourcesDir, "toolbar").mkdirs());
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        delete(root);
+    }
+
+    private static void delete(final File f) {
+        File[] files = f.listFiles();
+        if (files != null) {
+            for (File child : files) {
+                delete(child);
+            }
+        }
+        f.delete();
+    }
+
+    private static void writeImage(final File f, final int width,
+            final int height, final Color color) throws IOException {
+        BufferedImage image = new BufferedImage(width, height,
+                BufferedImage.TYPE_INT_ARGB);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                image.setRGB(x, y, color.getRGB());
+            }
+        }
+        assertTrue(ImageIO.write(image, "png", f));
+    }
+
+    private static int centerPixel(final Icon icon) {
+        Image image = ((ImageIcon) icon).getImage();
+        BufferedImage bi = (BufferedImage) image;
+        return bi.getRGB(bi.getWidth() / 2, bi.getHeight() / 2);
+    }
+
+    /**
+     * Test building with an invalid directory and size.
+     */
+    public void testBuildInvalid() throws IOException {
+        try {
+            IconAtlasBuilder.build(new File(root, "missing"));
+            fail("Expecting IAE.");
+        } catch (IllegalArgumentException e) {
+            // OK.
+        }
+        try {
+            IconAtlasBuilder.build(resourcesDir, 0);
+            fail("Expecting IAE.");
+        } catch (IllegalArgumentException e) {
+            // OK.
+        }
+    }
+
+    /**
+     * Test that small images are packed, and large ones aren't.
+     */
+    public void testBuild() throws IOException {
+        writeImage(new File(resourcesDir, "red.png"), 16, 16, Color.RED);
+        writeImage(new File(resourcesDir, "toolbar/green.png"), 24, 8,
+                Color.GREEN);
+        writeImage(new File(resourcesDir, "big.png"), 100, 100, Color.BLUE);
+
+        assertEquals(2, IconAtlasBuilder.build(resourcesDir));
+        assertTrue(new File(resourcesDir, IconAtlas.IMAGE_NAME).isFile());
+        Properties index = new Properties();
+        InputStream in = new FileInputStream(new File(
+                resourcesDir, IconAtlas.INDEX_NAME));
+        try {
+            index.load(in);
+        } finally {
+            in.close();
+        }
+        assertEquals(2, index.size());
+        assertNotNull(index.getProperty("red.png"));
+        assertNotNull(index.getProperty("toolbar/green.png"));
+        assertNull(index.getProperty("big.png"));
+
+        // rebuilding doesn't pack the atlas itself
+        assertEquals(2, IconAtlasBuilder.build(resourcesDir));
+        // nor the atlases of subdirectories
+        assertEquals(1, IconAtlasBuilder.build(new File(resourcesDir,
+                "toolbar")));
+        assertEquals(2, IconAtlasBuilder.build(resourcesDir));
+    }
+
+    /**
+     * Test that ResourceMaps load icons from the atlas.
+     */
+    public void testResourceMapUsesAtlas() throws IOException {
+        writeImage(new File(resourcesDir, "red.png"), 16, 16, Color.RED);
+        writeImage(new File(resourcesDir, "toolbar/green.png"), 24, 8,
+                Color.GREEN);
+        Properties bundle = new Properties();
+        bundle.setProperty("red.icon", "red.png");
+        bundle.setProperty("green.icon", "toolbar/green.png");
+        OutputStream out = new FileOutputStream(new File(resourcesDir,
+                "X.properties"));
+        try {
+            bundle.store(out, null);
+        } finally {
+            out.close();
+        }
+        IconAtlasBuilder.build(resourcesDir);
+        // the atlas is used even though the original images are deleted
+        assertTrue(new File(resourcesDir, "red.png").delete());
+        assertTrue(new File(resourcesDir, "toolbar/green.png").delete());
+
+        ImageCache.getInstance().clear();
+        ClassLoader loader = new URLClassLoader(new URL[] { root.toURI()
+                .toURL() }, null);
+        ResourceMap rm = new ResourceMap(null, loader, "p.resources.X");
+        Icon red = rm.getIcon("red.icon");
+        assertEquals(16, red.getIconWidth());
+        assertEquals(16, red.getIconHeight());
+        assertEquals(Color.RED.getRGB(), centerPixel(red));
+        Icon green = rm.getIcon("green.icon");
+        assertEquals(24, green.getIconWidth());
+        assertEquals(8, green.getIconHeight());
+        assertEquals(Color.GREEN.getRGB(), centerPixel(green));
+        // both icons are views of the same image
+        assertSame(((BufferedImage) ((ImageIcon) red).getImage()).getRaster()
+                .getDataBuffer(), ((BufferedImage) ((ImageIcon) green)
+                .getImage()).getRaster().getDataBuffer());
+        // the atlas image is kept in the ImageCache
+        assertEquals(1, ImageCache.getInstance().size());
+    }
+}
@@ -1,6 +1,8 @@
 package com.dteoh.treasuremap;
 
+import java.util.Collections;
 import java.util.Locale;
+import java.util.concurrent.Executor;
 
 import junit.framework.TestCase;
 
@@ -145,4 +147,33 @@ public class ResourceMapsTest extends TestCase {
         assertEquals("Parent", rMap.getString("Who"));
     }
 
+    /**
+     * Test creating a resource map that is warmed up when it is built.
+     */
+    public void testWithWarmUpBuild1() throws Exception {
+        Executor inline = new Executor() {
+            public void execute(final Runnable command) {
+                command.run();
+            }
+        };
+        assertNull(new ResourceMaps(getClass()).build().getWarmUp());
+        ResourceMap rMap = new ResourceMaps(getClass()).withWarmUp(inline)
+                .build();
+        assertNotNull(rMap.getWarmUp());
+        assertEquals(Collections.emptyList(), rMap.getWarmUp().get());
+        assertEquals("Hello", rMap.getString("Greeting"));
+    }
+
+    /**
+     * Test configuring warm up with a null executor.
+     */
+    public void testWithWarmUpNull() {
+        try {
+            new ResourceMaps(getClass()).withWarmUp(null);
+            fail("Expecting NPE.");
+        } catch (NullPointerException e) {
+            // OK.
+        }
+    }
+
 }
@@ -0,0 +1,75 @@
+/*
+ * Copyright (C) 2010 Douglas Teoh. Use is subject to license terms.
+ */
+
+package org.jdesktop.application;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.math.BigInteger;
+import java.util.IllegalFormatException;
+import java.util.Locale;
+
+import junit.framework.TestCase;
+
+/**
+ * Test the internal (package private) FormatTemplate class by comparing
+ * its output with String.format().
+ */
+public class FormatTemplateTest extends TestCase {
+
+    public FormatTemplateTest(final String testName) {
+        super(testName);
+    }
+
+    private void checkFormat(final Locale locale, final String format,
+            final Object... args) {
+        String expected = String.format(locale, format, args);
+        FormatTemplate template = FormatTemplate.compile(format);
+        assertEquals(format, expected, template.format(locale, args));
+        assertEquals(format, expected, template.format(locale, args));
+    }
+
+    public void testFormat() {
+        Locale l = Locale.US;
+        checkFormat(l, "Hello %s", "World");
+        checkFormat(l, "%s", (Object) null);
+        checkFormat(l, "%s and %s", "this", "that");
+        checkFormat(l, "%d items", 42);
+        checkFormat(l, "%d %d %d %d", (byte) -1, (short) 2, 3L, new BigInteger("4"));
+        checkFormat(l, "100%% done%n");
+        checkFormat(l, "%2$s %1$s", "World", "Hello");
+        checkFormat(l, "%s %<s %s", "a", "b");
+        checkFormat(l, "%-6s|%6s|", "ab", "cd");
+        checkFormat(l, "%,d", 1234567);
+        checkFormat(l, "%.2f", 3.14159);
+        checkFormat(l, "%08.3f", -3.14159);
+        checkFormat(l, "%x %X %o", 255, 255, 8);
+        checkFormat(l, "%tY", new java.util.Date(0L));
+        checkFormat(l, "%S", "upper");
+        checkFormat(l, "no specifiers");
+        checkFormat(l, "%1$s %s %s", "a", "b");
+        checkFormat(Locale.GERMANY, "%.1f %d", 1.5, 1000);
+    }
+
+    public void testInvalidFormat() {
+        String[] formats = { "%", "%q", "%s %s", "%<s", "%-%" };
+        for (String format : formats) {
+            FormatTemplate template = FormatTemplate.compile(format);
+            try {
+                template.format(Locale.US, new Object[] { "x" });
+                fail("expected IllegalFormatException for " + format);
+            } catch (IllegalFormatException expected) {
+            }
+        }
+    }
+
+    public void testFormatToAppendable() throws IOException {
+        FormatTemplate template = FormatTemplate.compile("%s=%.1f;");
+        StringWriter out = new StringWriter();
+        out.write("[");
+        template.formatTo(out, Locale.US, new Object[] { "pi", 3.14 });
+        template.formatTo(out, Locale.US, new Object[] { "e", 2.72 });
+        assertEquals("[pi=3.1;e=2.7;", out.toString());
+    }
+}
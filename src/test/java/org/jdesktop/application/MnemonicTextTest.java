@@ -81,7 +81,7 @@ public class MnemonicTextTest extends TestCase {
         }
     }
 
-    public void testConfigure() {
+    private static MnemonicData[] testData() {
         MnemonicData[] testData = {
                 new MnemonicData(""), // text doesn't contain a valid mnemonic
                                       // marker
@@ -98,6 +98,11 @@ public class MnemonicTextTest extends TestCase {
                 new MnemonicData("x & &y", "x & y", KeyEvent.VK_Y, 4), // ...
                 new MnemonicData("&File", "File", KeyEvent.VK_F, 0),
                 new MnemonicData("Save &As", "Save As", KeyEvent.VK_A, 5), };
+        return testData;
+    }
+
+    public void testConfigure() {
+        MnemonicData[] testData = testData();
         JLabel l = new JLabel();
         for (MnemonicData d : testData) {
             MnemonicText.configure(l, d.markedText);
@@ -117,4 +122,25 @@ public class MnemonicTextTest extends TestCase {
             checkAction(a, d.text, d.mnemonicKey, d.mnemonicIndex);
         }
     }
+
+    public void testParse() {
+        for (MnemonicData d : testData()) {
+            MnemonicLabel label = MnemonicText.parse(d.markedText);
+            assertEquals(d.text, label.getText());
+            assertEquals(d.mnemonicKey, label.getMnemonicKey());
+            assertEquals(d.mnemonicIndex, label.getMnemonicIndex());
+        }
+        MnemonicLabel nullLabel = MnemonicText.parse(null);
+        assertNull(nullLabel.getText());
+        assertEquals(-1, nullLabel.getMnemonicIndex());
+
+        // A parsed label can be applied to any number of targets
+        MnemonicLabel label = MnemonicText.parse("Save &As");
+        JLabel l = new JLabel();
+        JButton b = new JButton();
+        MnemonicText.configure(l, label);
+        MnemonicText.configure(b, label);
+        checkLabel(l, "Save As", KeyEvent.VK_A, 5);
+        checkButton(b, "Save As", KeyEvent.VK_A, 5);
+    }
 }
@@ -0,0 +1,112 @@
+/*
+ * Copyright (C) 2010 Douglas Teoh. Use is subject to license terms.
+ */
+
+package org.jdesktop.application;
+
+import org.jdesktop.application.ResourceConverter.ResourceConverterException;
+import org.jdesktop.application.ResourceConverter.StringScanner;
+
+import junit.framework.TestCase;
+
+/**
+ * Test ResourceConverter.StringScanner and the built-in number converters
+ * by comparing their results with the java.lang parse methods.
+ */
+public class ResourceConverterTest extends TestCase {
+
+    public ResourceConverterTest(final String testName) {
+        super(testName);
+    }
+
+    private void checkDouble(final String s) {
+        StringScanner scanner = new StringScanner(s);
+        double expected = Double.parseDouble(s);
+        double value = scanner.nextDouble();
+        assertEquals(s, Double.doubleToLongBits(expected),
+                Double.doubleToLongBits(value));
+        assertTrue(s, scanner.atEnd());
+        assertEquals(s, Float.floatToIntBits(Float.parseFloat(s)),
+                Float.floatToIntBits(new StringScanner(s).nextFloat()));
+    }
+
+    public void testNextDouble() {
+        String[] strings = { "0", "-0", "+1", "1.", ".5", "0.1", "-0.3",
+                "123456789012345", "1234567890123456789", "0.1234567890123456",
+                "3.14159", "1e10", "-2.5E-3", "NaN", "-Infinity", "1.5f",
+                "16777217", "0.0000000000000000000001", "9007199254740993" };
+        for (String s : strings) {
+            checkDouble(s);
+        }
+    }
+
+    public void testNextLong() {
+        assertEquals(Long.MIN_VALUE, new StringScanner("-9223372036854775808")
+                .nextLong(10, Long.MIN_VALUE, Long.MAX_VALUE));
+        assertEquals(255L, new StringScanner("ff").nextLong(16, 0, 255));
+        assertEquals(-42, new StringScanner("-42").nextInt());
+        assertEquals(-0x80000000L, new StringScanner("-0x80000000")
+                .nextDecodedLong(Integer.MIN_VALUE, Integer.MAX_VALUE));
+        assertEquals(8L, new StringScanner("010").nextDecodedLong(0, 100));
+        assertEquals(0L, new StringScanner("0").nextDecodedLong(0, 100));
+        assertEquals(0xABL, new StringScanner("#ab").nextDecodedLong(0, 255));
+        String[] invalid = { "", "-", "2147483648", "-2147483649", "x1" };
+        for (String s : invalid) {
+            StringScanner scanner = new StringScanner(s);
+            try {
+                scanner.nextInt();
+                fail("expected NumberFormatException for \"" + s + "\"");
+            } catch (NumberFormatException expected) {
+                assertEquals(0, scanner.getPosition());
+            }
+        }
+        try {
+            new StringScanner("0x-1").nextDecodedLong(Long.MIN_VALUE, Long.MAX_VALUE);
+            fail("expected NumberFormatException");
+        } catch (NumberFormatException expected) {
+        }
+    }
+
+    public void testScanList() {
+        StringScanner scanner = new StringScanner("  12 , #7f,3.5 ");
+        assertEquals(12, scanner.skipWhitespace().nextInt());
+        scanner.skipWhitespace().expect(',');
+        assertEquals(127L, scanner.skipWhitespace().nextDecodedLong(0, 255));
+        scanner.expect(',');
+        assertEquals(3.5, scanner.nextDouble());
+        assertFalse(scanner.atEnd());
+        scanner.skipWhitespace().expectEnd();
+        StringScanner range = new StringScanner("x123y", 1, 4);
+        assertEquals(0x12, range.nextHex(2));
+        assertEquals(3, range.nextInt());
+        assertTrue(range.atEnd());
+        try {
+            new StringScanner("12").nextHex(3);
+            fail("expected NumberFormatException");
+        } catch (NumberFormatException expected) {
+        }
+    }
+
+    private Object parse(final Class type, final String s)
+            throws ResourceConverterException {
+        return ResourceConverter.forType(type).parseString(s, null);
+    }
+
+    public void testNumberConverters() throws ResourceConverterException {
+        assertEquals(Integer.valueOf(-0x80000000), parse(Integer.class, "-0x80000000&"));
+        assertEquals(Integer.valueOf(255), parse(Integer.class, "ff&16"));
+        assertEquals(Byte.valueOf((byte) -128), parse(byte.class, "-128"));
+        assertEquals(Short.valueOf((short) 7), parse(Short.class, "111&2"));
+        assertEquals(Long.valueOf(Long.MAX_VALUE), parse(Long.class, "9223372036854775807"));
+        assertEquals(Float.valueOf(2.5f), parse(Float.class, " 2.5 "));
+        assertEquals(Double.valueOf(-0.1), parse(double.class, "-0.1"));
+        String[] invalid = { "128", "1 ", "ff&", "1&x", "", "1.0" };
+        for (String s : invalid) {
+            try {
+                parse(Byte.class, s);
+                fail("expected ResourceConverterException for \"" + s + "\"");
+            } catch (ResourceConverterException expected) {
+            }
+        }
+    }
+}
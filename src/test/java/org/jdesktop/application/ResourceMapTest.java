@@ -9,27 +9,52 @@ import java.awt.Color;
 import java.awt.Dimension;
 import java.awt.Event;
 import java.awt.Font;
+import java.awt.Graphics;
 import java.awt.Image;
 import java.awt.Insets;
 import java.awt.Point;
 import java.awt.Rectangle;
 import java.awt.Toolkit;
+import java.awt.event.HierarchyEvent;
 import java.awt.event.KeyEvent;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.StringWriter;
+import java.lang.ref.WeakReference;
 import java.net.MalformedURLException;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.net.URL;
+import java.net.URLClassLoader;
 import java.text.MessageFormat;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Locale;
+import java.util.Map;
 import java.util.ResourceBundle;
 import java.util.Set;
-
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+
+import javax.imageio.ImageIO;
 import javax.swing.Icon;
 import javax.swing.ImageIcon;
 import javax.swing.JButton;
+import javax.swing.JComponent;
 import javax.swing.JFrame;
 import javax.swing.JLabel;
 import javax.swing.JMenu;
@@ -39,6 +64,8 @@ import javax.swing.JPanel;
 import javax.swing.JScrollPane;
 import javax.swing.JTextField;
 import javax.swing.KeyStroke;
+import javax.swing.RepaintManager;
+import javax.swing.SwingUtilities;
 import javax.swing.border.EmptyBorder;
 
 import junit.framework.TestCase;
@@ -48,13 +75,15 @@ import org.jdesktop.application.ResourceConverter.ResourceConverterException;
 /*
  * ResourceMapTest.java - JUnit based test
  *
- * This test depends on ResourceBundles and an image file:
+ * This test depends on ResourceBundles and image files:
  * <pre>
  * resources/Basic.properties
  * resources/Parent.properties
  * resources/Child.properties
  * resources/Injection.properties
  * resources/black1x1.png
+ * resources/square64.png
+ * resources/square64@2x.png
  * resources/ExprEval.properties
  * resources/Basic_zz.properties
  * resources/Basic_WindowsXP.properties
@@ -386,7 +415,10 @@ public class ResourceMapTest extends TestCase {
 
     public void testRegisterResourceConverter() {
         ResourceMap rm = basicResourceMap();
+        int generation = ResourceConverter.getRegistryGeneration();
         ResourceConverter.register(new TestResourceConverter());
+        assertEquals("cached primitive values are invalidated",
+                generation + 1, ResourceConverter.getRegistryGeneration());
         assertNotNull(ResourceConverter.forType(TestType.class));
         String testAddResourceConverter = "testAddResourceConverter";
         assertEquals(testAddResourceConverter,
@@ -397,6 +429,235 @@ public class ResourceMapTest extends TestCase {
         assertTrue("getString(\"" + testAddResourceConverter + "\").value", b);
     }
 
+    private static class ScopedType {
+        public final String value;
+
+        ScopedType(final String value) {
+            this.value = value;
+        }
+    }
+
+    private static class ScopedResourceConverter extends ResourceConverter {
+        private final String prefix;
+
+        ScopedResourceConverter(final String prefix) {
+            super(ScopedType.class);
+            this.prefix = prefix;
+        }
+
+        @Override
+        public Object parseString(final String s, final ResourceMap ignore) {
+            return new ScopedType(prefix + s);
+        }
+    }
+
+    public void testScopedResourceConverter() {
+        String key = "testAddResourceConverter";
+        ResourceMap parent = basicResourceMap();
+        ResourceMap child = new ResourceMap(parent, getClass()
+                .getClassLoader(), "noSuchBundle");
+        ResourceMap other = basicResourceMap();
+        assertNull(child.getConverter(ScopedType.class));
+        parent.registerConverter(new ScopedResourceConverter("parent:"));
+        assertNull(ResourceConverter.forType(ScopedType.class));
+        assertNull(other.getConverter(ScopedType.class));
+        ScopedType st = (ScopedType) child.getObject(key, ScopedType.class);
+        assertEquals("parent:" + key, st.value);
+        try {
+            other.getObject(key, ScopedType.class);
+            fail("expected LookupException");
+        } catch (ResourceMap.LookupException expected) {
+        }
+        ResourceMap sibling = new ResourceMap(parent, getClass()
+                .getClassLoader(), "noSuchBundle");
+        ResourceConverter childConverter = new ScopedResourceConverter("child:");
+        child.registerConverter(childConverter);
+        assertSame(childConverter, child.getConverter(ScopedType.class));
+        assertNotSame(childConverter, parent.getConverter(ScopedType.class));
+        assertSame(ResourceConverter.forType(Integer.class), child
+                .getConverter(int.class));
+        // registered after the first lookup, but it's used from now on
+        st = (ScopedType) child.getObject(key, ScopedType.class);
+        assertEquals("child:" + key, st.value);
+        // the parent, which defines the key, and a sibling aren't affected
+        st = (ScopedType) parent.getObject(key, ScopedType.class);
+        assertEquals("parent:" + key, st.value);
+        st = (ScopedType) sibling.getObject(key, ScopedType.class);
+        assertEquals("parent:" + key, st.value);
+
+        // a scoped converter that overrides a global one
+        assertEquals(Integer.valueOf(123), parent.getInteger("integer123"));
+        assertEquals(Integer.valueOf(123), child.getInteger("integer123"));
+        child.registerConverter(new ResourceConverter(Integer.class) {
+            @Override
+            public Object parseString(final String s, final ResourceMap ignore) {
+                return Integer.valueOf(Integer.parseInt(s) + 1000);
+            }
+        });
+        assertEquals(Integer.valueOf(1123), child.getInteger("integer123"));
+        assertEquals(Integer.valueOf(123), parent.getInteger("integer123"));
+        assertEquals(Integer.valueOf(123), sibling.getInteger("integer123"));
+        assertEquals(Integer.valueOf(1123), child.getInteger("integer123"));
+    }
+
+    /*
+     * Counts its conversions, and waits for the test to release it so that
+     * other threads can ask for the same value in the meantime.
+     */
+    private static class SlowResourceConverter extends ResourceConverter {
+        final AtomicInteger conversions = new AtomicInteger(0);
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+
+        SlowResourceConverter() {
+            super(ScopedType.class);
+        }
+
+        @Override
+        public Object parseString(final String s, final ResourceMap r) {
+            conversions.incrementAndGet();
+            started.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            if (s.equals("recursive")) {
+                return r.getObject("recursive", ScopedType.class);
+            }
+            return new ScopedType(s);
+        }
+    }
+
+    public void testSingleFlightConversion() throws Exception {
+        final ResourceMap rm = basicResourceMap();
+        final SlowResourceConverter converter = new SlowResourceConverter();
+        rm.registerConverter(converter);
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<Object>> results = new ArrayList<Future<Object>>();
+            for (int i = 0; i < 4; i++) {
+                results.add(executor.submit(new Callable<Object>() {
+                    public Object call() {
+                        return rm.getObject("aStringResource", ScopedType.class);
+                    }
+                }));
+            }
+            converter.started.await();
+            Thread.sleep(50);
+            converter.release.countDown();
+            Object value = results.get(0).get();
+            for (Future<Object> result : results) {
+                assertSame(value, result.get());
+            }
+            assertEquals(1, converter.conversions.get());
+
+            // a thread that missed the cache before the value was cached
+            assertSame(value, rm.convert("aStringResource", ScopedType.class,
+                    rm.getString("aStringResource"), converter));
+            assertEquals(1, converter.conversions.get());
+        } finally {
+            executor.shutdown();
+        }
+        rm.putResource("recursive", "recursive");
+        try {
+            rm.getObject("recursive", ScopedType.class);
+            fail("expected LookupException");
+        } catch (ResourceMap.LookupException expected) {
+            assertEquals("recursive", expected.getKey());
+        }
+    }
+
+    public void testConvertedValueKeepsString() {
+        ResourceMap rm = basicResourceMap();
+        Integer i = rm.getInteger("integer123");
+        assertEquals(123, i.intValue());
+        assertEquals("123", rm.getString("integer123"));
+        assertEquals(new Long(123), rm.getLong("integer123"));
+        assertSame(i, rm.getInteger("integer123"));
+        assertSame(i, rm.getObject("integer123", int.class));
+        assertEquals("123", rm.getString("integer123"));
+
+        MessageFormat mf = (MessageFormat) rm.getObject("aHelloMessage",
+                MessageFormat.class);
+        assertNotNull(mf);
+        assertEquals("Hello %s", rm.getString("aHelloMessage"));
+        assertSame(mf, rm.getObject("aHelloMessage", MessageFormat.class));
+    }
+
+    public void testSharedImmutableValues() {
+        ResourceMap rm1 = basicResourceMap();
+        ResourceMap rm2 = basicResourceMap();
+        Color c = rm1.getColor("color556677");
+        assertSame(c, rm2.getColor("color556677"));
+        assertSame(rm1.getFont("fontArialPLAIN12"), rm2
+                .getFont("fontArialPLAIN12"));
+        assertSame(rm1.getObject("emptyBorder8675", EmptyBorder.class), rm2
+                .getObject("emptyBorder8675", EmptyBorder.class));
+        rm2.putResource("anotherColor", "#556677");
+        assertSame(c, rm2.getColor("anotherColor"));
+        // mutable values aren't shared
+        assertNotSame(rm1.getObject("aHelloMessage", MessageFormat.class), rm2
+                .getObject("aHelloMessage", MessageFormat.class));
+        assertTrue(ResourceConverter.canonicalValuesSize() >= 3);
+    }
+
+    public void testValueSharing() {
+        ResourceMap rm = basicResourceMap();
+        Dimension d = rm.getDimension("dimension56");
+        assertEquals(new Dimension(5, 6), d);
+        d.setSize(100, 100);
+        assertEquals(new Dimension(5, 6), rm.getDimension("dimension56"));
+        assertNotSame(rm.getObject("point12", Point.class), rm.getObject(
+                "point12", Point.class));
+        assertEquals(5, rm.getWidth("dimension56", -1));
+        assertEquals(6, rm.getHeight("dimension56", -1));
+        assertEquals(-1, rm.getWidth("noSuchDimension", -1));
+
+        assertEquals(ResourceMap.ValueSharing.COPY_ON_READ, rm
+                .getValueSharing(Rectangle.class));
+        rm.setValueSharing(Rectangle.class, ResourceMap.ValueSharing.SHARED);
+        assertSame(rm.getObject("rectangle1234", Rectangle.class), rm
+                .getObject("rectangle1234", Rectangle.class));
+        assertEquals(ResourceMap.ValueSharing.SHARED, rm
+                .getValueSharing(Color.class));
+        try {
+            rm.setValueSharing(Color.class, ResourceMap.ValueSharing.COPY_ON_READ);
+            fail("expected IllegalArgumentException");
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+
+    public void testPrimitiveAccessors() {
+        ResourceMap rm = new ResourceMap(basicResourceMap(), getClass()
+                .getClassLoader(), "noSuchBundle");
+        assertEquals(123, rm.getInt("integer123", 0));
+        assertEquals(123, rm.getInt("integer123", 0));
+        assertEquals(-1, rm.getInt("integerNegative1", 0));
+        assertEquals(7, rm.getInt("noSuchKey", 7));
+        assertEquals(123L, rm.getLong("long123", 0L));
+        assertEquals(123.0, rm.getDouble("double123", 0.0), 0.0);
+        assertEquals(1.5, rm.getDouble("noSuchKey", 1.5), 0.0);
+        assertTrue(rm.getBoolean("booleanTrue", false));
+        assertFalse(rm.getBoolean("booleanOff", true));
+        assertTrue(rm.getBoolean("noSuchKey", true));
+        assertEquals(0xFF556677, rm.getRGB("color556677"));
+        assertEquals(0x55667788, rm.getRGB("color55667788"));
+        assertEquals(0, rm.getRGB("noSuchKey"));
+        try {
+            rm.getInt("badlyFormattedInteger", 0);
+            fail("expected LookupException");
+        } catch (ResourceMap.LookupException expected) {
+        }
+
+        // Cached primitives are discarded when a resource changes
+        rm.getParent().putResource("integer123", "456");
+        assertEquals(456, rm.getInt("integer123", 0));
+        rm.putResource("integer123", "789");
+        assertEquals(789, rm.getInt("integer123", 0));
+        assertEquals(789.0, rm.getDouble("integer123", 0.0), 0.0);
+    }
+
     private ResourceMap childResourceMap() {
         String bundleBaseName = getClass().getPackage().getName()
                 + ".resources.Child";
@@ -549,6 +810,189 @@ public class ResourceMapTest extends TestCase {
         assertEquals(KeyEvent.VK_X, button.getMnemonic());
     }
 
+    /* Counts the revalidate and repaint requests for JComponents */
+    private static class CountingRepaintManager extends RepaintManager {
+        final List<JComponent> invalidComponents = new ArrayList<JComponent>();
+        int dirtyRegions = 0;
+        @Override
+        public synchronized void addInvalidComponent(final JComponent c) {
+            invalidComponents.add(c);
+        }
+        @Override
+        public synchronized void addDirtyRegion(final JComponent c, final int x,
+                final int y, final int w, final int h) {
+            dirtyRegions += 1;
+        }
+    }
+
+    /* The hierarchy that injectionResourceMap() injects, in a window
+     * panel, so that its root can be revalidated.
+     */
+    private static JPanel injectionHierarchy() {
+        JPanel parentPanel = new JPanel();
+        JPanel childPanel = new JPanel();
+        JTextField textField1 = new JTextField();
+        JLabel mnemonicLabel2 = new JLabel();
+        JButton button = new JButton();
+        parentPanel.setName("parentPanel");
+        childPanel.setName("childPanel");
+        textField1.setName("textField1");
+        mnemonicLabel2.setName("mnemonicLabel2");
+        button.setName("button");
+        parentPanel.add(childPanel);
+        parentPanel.add(textField1);
+        childPanel.add(mnemonicLabel2);
+        childPanel.add(button);
+        new JPanel().add(parentPanel);
+        return parentPanel;
+    }
+
+    public void testInjectComponentsCoalesceLayout() throws Exception {
+        final JPanel uncoalesced = injectionHierarchy();
+        final JPanel coalesced = injectionHierarchy();
+        RepaintManager repaintManager = RepaintManager.currentManager(coalesced);
+        CountingRepaintManager counter = new CountingRepaintManager();
+        RepaintManager.setCurrentManager(counter);
+        try {
+            SwingUtilities.invokeAndWait(new Runnable() {
+                public void run() {
+                    injectionResourceMap().injectComponents(uncoalesced, false);
+                }
+            });
+            assertTrue(counter.invalidComponents.size() > 1);
+            assertTrue(counter.dirtyRegions > 1);
+
+            counter.invalidComponents.clear();
+            counter.dirtyRegions = 0;
+            SwingUtilities.invokeAndWait(new Runnable() {
+                public void run() {
+                    injectionResourceMap().injectComponents(coalesced, true);
+                }
+            });
+            assertSame("RepaintManager should be restored", counter,
+                    RepaintManager.currentManager(coalesced));
+            assertEquals("only the root is revalidated", Collections
+                    .singletonList(coalesced), counter.invalidComponents);
+            assertEquals("only the root is repainted", 1, counter.dirtyRegions);
+        } finally {
+            RepaintManager.setCurrentManager(repaintManager);
+        }
+        JPanel childPanel = (JPanel) coalesced.getComponent(0);
+        assertEquals("textField1", ((JTextField) coalesced.getComponent(1)).getText());
+        assertEquals("Save As", ((JLabel) childPanel.getComponent(0)).getText());
+        assertEquals("Exit", ((JButton) childPanel.getComponent(1)).getText());
+        assertEquals(new Color(0x55, 0x00, 0x00), coalesced.getBackground());
+        assertEquals(new Color(0x00, 0x00, 0x77), childPanel.getForeground());
+    }
+
+    public void testInjectCachedMnemonicLabels() {
+        ResourceMap rm = injectionResourceMap();
+        JLabel label1 = new JLabel();
+        JLabel label2 = new JLabel();
+        label1.setName("mnemonicLabel2");
+        label2.setName("mnemonicLabel2");
+        rm.injectComponent(label1);
+        rm.injectComponent(label2);
+        assertEquals("Save As", label2.getText());
+        assertEquals(KeyEvent.VK_A, label2.getDisplayedMnemonic());
+        assertEquals(5, label2.getDisplayedMnemonicIndex());
+        // Injection doesn't replace the String resource
+        assertEquals("Save &As", rm.getString("mnemonicLabel2.text"));
+    }
+
+    public void testAttachComponents() {
+        ResourceMap rm = injectionResourceMap();
+        JPanel parentPanel = new JPanel();
+        parentPanel.setName("parentPanel");
+        rm.attachComponents(parentPanel);
+        assertEquals(new Color(0x55, 0x00, 0x00), parentPanel.getBackground());
+
+        JTextField textField1 = new JTextField();
+        textField1.setName("textField1");
+        parentPanel.add(textField1);
+        assertEquals("textField1", textField1.getText());
+
+        // Subtrees added later are injected and attached too
+        JPanel childPanel = new JPanel();
+        JButton button = new JButton();
+        childPanel.setName("childPanel");
+        button.setName("button");
+        childPanel.add(button);
+        parentPanel.add(childPanel);
+        assertEquals("Exit", button.getText());
+        JLabel mnemonicLabel2 = new JLabel();
+        mnemonicLabel2.setName("mnemonicLabel2");
+        childPanel.add(mnemonicLabel2);
+        assertEquals("Save As", mnemonicLabel2.getText());
+
+        // removed subtrees are detached, and attached again when they're re-added
+        parentPanel.remove(childPanel);
+        JTextField removedTextField = new JTextField();
+        removedTextField.setName("textField1");
+        childPanel.add(removedTextField);
+        assertEquals("", removedTextField.getText());
+        parentPanel.add(childPanel);
+        assertEquals("textField1", removedTextField.getText());
+        JTextField readdedTextField = new JTextField();
+        readdedTextField.setName("textField1");
+        childPanel.add(readdedTextField);
+        assertEquals("textField1", readdedTextField.getText());
+
+        rm.detachComponents(parentPanel);
+        JTextField textField2 = new JTextField();
+        textField2.setName("textField2");
+        childPanel.add(textField2);
+        assertEquals("", textField2.getText());
+    }
+
+    private static class TestShowingPanel extends JPanel {
+        boolean showing = false;
+
+        @Override
+        public boolean isShowing() {
+            return showing;
+        }
+    }
+
+    public void testLazyInjection() {
+        ResourceMap rm = injectionResourceMap();
+        rm.setLazyInjection(true);
+        assertTrue(rm.isLazyInjection());
+
+        JPanel parentPanel = new JPanel();
+        TestShowingPanel childPanel = new TestShowingPanel();
+        JButton button = new JButton();
+        JMenu menu = new JMenu();
+        JMenuItem item = new JMenuItem();
+        parentPanel.setName("parentPanel");
+        childPanel.setName("childPanel");
+        button.setName("button");
+        menu.setName("Edit.menu");
+        item.setName("item");
+        childPanel.add(button);
+        childPanel.setVisible(false);
+        parentPanel.add(childPanel);
+        menu.add(item);
+        parentPanel.add(menu);
+        rm.injectComponents(parentPanel);
+
+        // Hidden containers and menus are injected, their contents aren't
+        assertEquals(new Color(0x00, 0x00, 0x77), childPanel.getForeground());
+        assertEquals(68, menu.getMnemonic());
+        assertEquals("", button.getText());
+        assertEquals("", item.getText());
+
+        childPanel.showing = true;
+        childPanel.setVisible(true);
+        childPanel.dispatchEvent(new HierarchyEvent(childPanel,
+                HierarchyEvent.HIERARCHY_CHANGED, childPanel, parentPanel,
+                HierarchyEvent.SHOWING_CHANGED));
+        assertEquals("Exit", button.getText());
+
+        menu.setSelected(true);
+        assertEquals("Item text", item.getText());
+    }
+
     private static class TestResourceAnnotation {
         @Resource
         private String stringField;
@@ -653,6 +1097,479 @@ public class ResourceMapTest extends TestCase {
         assertTrue("containsKey(\"justNull\")", rm.containsKey("justNull"));
     }
 
+    public void testExpressionInvalidation() {
+        ResourceMap rm = expressionEvaluationResourceMap();
+        ResourceMap child = new ResourceMap(rm, getClass().getClassLoader(),
+                "noSuchBundle");
+        assertEquals("Hello World", rm.getString("helloworld3"));
+        assertEquals("Hello World", child.getString("helloworld2"));
+        assertEquals("${hello} ${place}", rm.getResource("helloworld3"));
+
+        rm.putResource("world", "Moon");
+        assertEquals("Moon", rm.getString("place"));
+        assertEquals("Hello Moon", rm.getString("helloworld3"));
+        assertEquals("Hello Moon", child.getString("helloworld2"));
+        assertEquals("Hello World", rm.getString("helloworld0"));
+
+        rm.putResource("place", "${hello}");
+        assertEquals("Hello Hello", child.getString("helloworld3"));
+    }
+
+    public void testExpressionEvaluationContext() {
+        ResourceMap rm = expressionEvaluationResourceMap();
+        ClassLoader classLoader = getClass().getClassLoader();
+        ResourceMap moon = new ResourceMap(rm, classLoader, "noSuchBundle");
+        ResourceMap world = new ResourceMap(rm, classLoader, "noSuchBundle");
+        moon.putResource("world", "Moon");
+        assertEquals("Hello Moon", moon.getString("helloworld3"));
+        assertEquals("Hello World", world.getString("helloworld3"));
+        assertEquals("Hello World", rm.getString("helloworld3"));
+        assertEquals("Hello Moon", moon.getString("helloworld3"));
+
+        moon.putResource("world", "Mars");
+        assertEquals("Hello Mars", moon.getString("helloworld3"));
+        assertEquals("Hello World", world.getString("helloworld3"));
+    }
+
+    public void testExpressionReferenceCycle() {
+        ResourceMap rm = new ResourceMap(null, getClass().getClassLoader(),
+                "noSuchBundle");
+        rm.putResource("a", "${b}");
+        rm.putResource("b", "x ${a}");
+        rm.putResource("c", "${b}");
+        try {
+            rm.getString("c");
+            fail("expected LookupException");
+        } catch (ResourceMap.LookupException expected) {
+            assertTrue(expected.getMessage().contains("reference cycle"));
+        }
+        try {
+            rm.resolveAll();
+            fail("expected LookupException");
+        } catch (ResourceMap.LookupException expected) {
+            assertTrue(expected.getMessage().contains("reference cycle"));
+        }
+        rm.putResource("a", "A");
+        rm.resolveAll();
+        assertEquals("x A", rm.getString("c"));
+    }
+
+    public void testResolveAll() throws Exception {
+        ResourceMap rm = expressionEvaluationResourceMap();
+        rm.putResource("noSuchVariableKey", "hello");
+        rm.putResource("noClosingBrace", "hello");
+        ResourceMap child = new ResourceMap(rm, getClass().getClassLoader(),
+                "noSuchBundle");
+        child.putResource("world", "Moon");
+        child.putResource("moon", "${helloworld3}!");
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            child.resolveAll(executor);
+        } finally {
+            executor.shutdown();
+        }
+        assertEquals("Hello Moon!", child.getString("moon"));
+        assertEquals("Hello Moon", child.getString("helloworld2"));
+        assertEquals("${hello} ${world}", child.getString("escHelloWorld"));
+        assertNull(child.getString("justNull"));
+        assertEquals("Hello World", rm.getString("helloworld3"));
+    }
+
+    public void testWarmUp() throws Exception {
+        ResourceMap rm = expressionEvaluationResourceMap();
+        ResourceMap child = new ResourceMap(rm, getClass().getClassLoader(),
+                "noSuchBundle");
+        child.putResource("button.foreground", "1, 2, 3");
+        child.putResource("label.foreground", "no color");
+        assertNull(child.getWarmUp());
+        ExecutorService executor = Executors.newFixedThreadPool(3);
+        List<ResourceMap.LookupException> failures;
+        try {
+            Future<List<ResourceMap.LookupException>> warmUp = child
+                    .warmUp(executor);
+            assertSame(warmUp, child.getWarmUp());
+            failures = warmUp.get();
+        } finally {
+            executor.shutdown();
+        }
+        Set<String> failedKeys = new HashSet<String>();
+        for (ResourceMap.LookupException e : failures) {
+            failedKeys.add(e.getKey());
+        }
+        assertEquals(new HashSet<String>(Arrays.asList("<not found>",
+                "borf", "label.foreground")), failedKeys);
+        assertEquals(new Color(1, 2, 3), child.getColor("button.foreground"));
+        assertEquals("Hello World", child.getString("helloworld3"));
+
+        Map<String, Class<?>> types = new HashMap<String, Class<?>>();
+        types.put("6", Dimension.class);
+        ResourceMap basic = basicResourceMap();
+        assertEquals(Collections.emptyList(), basic.warmUp(new Executor() {
+            public void execute(final Runnable command) {
+                command.run();
+            }
+        }, types).get());
+    }
+
+    public void testPrefetchImages() throws Exception {
+        ResourceMap rm = basicResourceMap();
+        rm.putResource("missingIcon", "noSuchImage.png");
+        assertEquals(Collections.emptyList(), rm.prefetchImages("black1x1")
+                .get());
+        Icon icon = rm.getIcon("black1x1Icon");
+        checkBlack1x1Icon("prefetched black1x1Icon", icon);
+        assertSame(icon, rm.getIconAsync("black1x1Icon").get());
+        List<ResourceMap.LookupException> failures = rm.prefetchImages(
+                Arrays.asList("missingIcon", "AbsoluteBlack1x1Icon",
+                        "aStringResource", "noSuchResource")).get();
+        assertEquals(1, failures.size());
+        assertEquals("missingIcon", failures.get(0).getKey());
+        checkBlack1x1Icon("AbsoluteBlack1x1Icon", rm
+                .getIconAsync("AbsoluteBlack1x1Icon").get());
+        assertNull(rm.getIconAsync("noSuchResource").get());
+        try {
+            rm.getIconAsync("missingIcon").get();
+            fail("expected ExecutionException");
+        } catch (ExecutionException expected) {
+            assertTrue(expected.getCause() instanceof ResourceMap.LookupException);
+        }
+
+        // with the caller's executor, images are converted to a fast type
+        final AtomicInteger tasks = new AtomicInteger(0);
+        Executor executor = new Executor() {
+            public void execute(final Runnable r) {
+                tasks.incrementAndGet();
+                r.run();
+            }
+        };
+        ImageCache.getInstance().clear();
+        rm.putResource("squareIcon", "square64.png");
+        assertEquals(Collections.emptyList(), rm.prefetchImages(executor,
+                Collections.singleton("squareIcon")).get());
+        assertTrue(tasks.get() > 0);
+        int prefetchTasks = tasks.get();
+        Icon square = rm.getIconAsync(executor, "squareIcon").get();
+        assertEquals(prefetchTasks + 1, tasks.get());
+        int type = ((BufferedImage) ((ImageIcon) square).getImage()).getType();
+        assertTrue("image type " + type, (type == BufferedImage.TYPE_INT_ARGB)
+                || (type == BufferedImage.TYPE_INT_RGB));
+        assertEquals(Color.RED.getRGB(), centerPixel(square));
+    }
+
+    public void testImageDiskCache() throws Exception {
+        ImageCache cache = ImageCache.getInstance();
+        File dir = File.createTempFile("rasters", "");
+        dir.delete();
+        try {
+            cache.setDiskCacheDirectory(dir);
+            assertEquals(dir, cache.getDiskCacheDirectory());
+            cache.clear();
+            ResourceMap rm = basicResourceMap();
+            rm.putResource("squareIcon", "square64.png");
+            Icon icon = rm.getIcon("squareIcon");
+            assertEquals(0L, cache.getDiskHitCount());
+            assertEquals(1, dir.listFiles().length);
+
+            cache.clear();
+            Icon cached = basicResourceMap().getImageIcon("black1x1Icon");
+            checkBlack1x1Icon("black1x1Icon", cached);
+            cache.clear();
+            rm = basicResourceMap();
+            rm.putResource("squareIcon", "square64.png");
+            Icon fromDisk = rm.getIcon("squareIcon");
+            assertNotSame(icon, fromDisk);
+            assertEquals(1L, cache.getDiskHitCount());
+            assertEquals(64, fromDisk.getIconWidth());
+            assertEquals(Color.RED.getRGB(), centerPixel(fromDisk));
+            assertEquals(2, dir.listFiles().length);
+
+            // files are cached by their URL, size and modification time
+            RasterFileCache diskCache = cache.getDiskCache();
+            File png = new File(dir.getParentFile(), dir.getName() + ".png");
+            try {
+                BufferedImage image = new BufferedImage(2, 2, BufferedImage.TYPE_INT_ARGB);
+                image.setRGB(1, 1, Color.RED.getRGB());
+                assertTrue(ImageIO.write(image, "png", png));
+                URL url = png.toURI().toURL();
+                assertEquals(Color.RED.getRGB(), diskCache.read(url).getRGB(1, 1));
+                BufferedImage cachedImage = diskCache.read(url);
+                assertEquals(2L, cache.getDiskHitCount());
+                assertEquals(Color.RED.getRGB(), cachedImage.getRGB(1, 1));
+                assertTrue(cachedImage.getRaster().getDataBuffer() instanceof DataBufferInt);
+                image.setRGB(1, 1, Color.BLUE.getRGB());
+                assertTrue(ImageIO.write(image, "png", png));
+                assertTrue(png.setLastModified(png.lastModified() - 10000L));
+                assertEquals(Color.BLUE.getRGB(), diskCache.read(url).getRGB(1, 1));
+                assertEquals(2L, cache.getDiskHitCount());
+            } finally {
+                png.delete();
+            }
+        } finally {
+            cache.setDiskCacheDirectory(null);
+            cache.clear();
+            File[] files = dir.listFiles();
+            if (files != null) {
+                for (File file : files) {
+                    file.delete();
+                }
+            }
+            dir.delete();
+        }
+        assertNull(cache.getDiskCacheDirectory());
+    }
+
+    public void testResourceIndex() throws Exception {
+        ClassLoader classLoader = getClass().getClassLoader();
+        ResourceIndex index = ResourceIndex.forClassLoader(classLoader);
+        assertSame(index, ResourceIndex.forClassLoader(classLoader));
+        String dir = "org/jdesktop/application/resources/";
+        assertEquals(classLoader.getResource(dir + "black1x1.png"), index.getResource(dir + "black1x1.png"));
+        assertEquals(classLoader.getResource(dir + "square64@2x.png"), index.getResource(dir + "square64@2x.png"));
+        // a missing resource is only searched for once
+        long searches = index.getSearchCount();
+        assertNull(index.getResource(dir + "noSuchImage@2x.png"));
+        assertNull(index.getResource(dir + "noSuchImage@2x.png"));
+        assertEquals(searches + 1, index.getSearchCount());
+
+        File jarFile = File.createTempFile("resources", ".jar");
+        File jarFile2 = File.createTempFile("resources", ".jar");
+        try {
+            JarOutputStream out = new JarOutputStream(new FileOutputStream(jarFile));
+            try {
+                out.putNextEntry(new JarEntry("p/"));
+                out.putNextEntry(new JarEntry("p/resources/"));
+                out.putNextEntry(new JarEntry("p/resources/a.png"));
+                out.write(new byte[] {1, 2, 3});
+                out.putNextEntry(new JarEntry("p/resources/sub/b.png"));
+            } finally {
+                out.close();
+            }
+            out = new JarOutputStream(new FileOutputStream(jarFile2));
+            try {
+                out.putNextEntry(new JarEntry("p/"));
+                out.putNextEntry(new JarEntry("p/resources/"));
+                out.putNextEntry(new JarEntry("p/resources/d.png"));
+            } finally {
+                out.close();
+            }
+            URLClassLoader jarLoader = new URLClassLoader(new URL[] {jarFile.toURI().toURL(),
+                    jarFile2.toURI().toURL()}, null);
+            ResourceIndex jarIndex = ResourceIndex.forClassLoader(jarLoader);
+            URL url = jarIndex.getResource("p/resources/a.png");
+            assertEquals(jarLoader.getResource("p/resources/a.png"), url);
+            assertNull(jarIndex.getResource("p/resources/c.png"));
+            assertEquals(1L, jarIndex.getSearchCount());
+            // "sub/" has no directory entry, so b.png isn't indexed
+            assertEquals(jarLoader.getResource("p/resources/sub/b.png"), jarIndex.getResource("p/resources/sub/b.png"));
+            assertEquals(2L, jarIndex.getSearchCount());
+            // only the first jar's "p/resources/" is indexed
+            assertEquals(jarLoader.getResource("p/resources/d.png"), jarIndex.getResource("p/resources/d.png"));
+            assertEquals(3L, jarIndex.getSearchCount());
+
+            // the index doesn't keep its ClassLoader alive
+            WeakReference<ClassLoader> loaderRef = new WeakReference<ClassLoader>(jarLoader);
+            jarLoader = null;
+            for (int i = 0; (i < 10) && (loaderRef.get() != null); i++) {
+                System.gc();
+                Thread.sleep(10);
+            }
+            assertNull(loaderRef.get());
+        } finally {
+            jarFile.delete();
+            jarFile2.delete();
+        }
+    }
+
+    public void testImageCache() {
+        ImageCache cache = ImageCache.getInstance();
+        long maxBytes = cache.getMaxBytes();
+        try {
+            cache.clear();
+            long misses = cache.getMissCount();
+            long hits = cache.getHitCount();
+            Icon icon = basicResourceMap().getIcon("black1x1Icon");
+            checkBlack1x1Icon("cached black1x1Icon", icon);
+            assertEquals(misses + 1, cache.getMissCount());
+            assertEquals(1, cache.size());
+            assertEquals(4L, cache.getBytes());
+            // another map, another key, same URL
+            assertSame(icon, basicResourceMap().getIcon("AbsoluteBlack1x1Icon"));
+            assertEquals(hits + 1, cache.getHitCount());
+
+            long evictions = cache.getEvictionCount();
+            cache.setMaxBytes(0L);
+            assertEquals(0, cache.size());
+            assertEquals(evictions + 1, cache.getEvictionCount());
+            Icon uncached = basicResourceMap().getIcon("black1x1Icon");
+            assertNotSame(icon, uncached);
+            assertEquals(0, cache.size());
+        } finally {
+            cache.setMaxBytes(maxBytes);
+        }
+        try {
+            cache.setMaxBytes(-1L);
+            fail("expected IllegalArgumentException");
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+
+    private int centerPixel(final Icon icon) {
+        BufferedImage image = new BufferedImage(icon.getIconWidth(), icon
+                .getIconHeight(), BufferedImage.TYPE_INT_ARGB);
+        Graphics g = image.createGraphics();
+        icon.paintIcon(null, g, 0, 0);
+        g.dispose();
+        return image.getRGB(icon.getIconWidth() / 2, icon.getIconHeight() / 2);
+    }
+
+    public void testScaledIcon() {
+        ResourceMap rm = basicResourceMap();
+        rm.putResource("squareIcon", "square64.png");
+        Dimension size = new Dimension(16, 8);
+        Icon icon = rm.getIcon("squareIcon", size, 1.0);
+        assertEquals(16, icon.getIconWidth());
+        assertEquals(8, icon.getIconHeight());
+        assertEquals(16, ((ScaledIcon) icon).getImage().getWidth(null));
+        assertEquals(Color.RED.getRGB(), centerPixel(icon));
+        assertSame(icon, rm.getIcon("squareIcon", new Dimension(16, 8), 1.0));
+        // a component that isn't displayable uses the default screen's scale
+        assertSame(icon, rm.getIcon("squareIcon", size, new JLabel()));
+
+        // the scaled images are shared through the ImageCache
+        ResourceMap rm2 = basicResourceMap();
+        rm2.putResource("squareIcon", "square64.png");
+        Icon icon2 = rm2.getIcon("squareIcon", size, 1.0);
+        assertNotSame(icon, icon2);
+        assertSame(((ScaledIcon) icon).getImage(), ((ScaledIcon) icon2).getImage());
+
+        // square64@2x.png is blue
+        Icon icon2x = rm.getIcon("squareIcon", size, 2.0);
+        assertNotSame(icon, icon2x);
+        assertEquals(16, icon2x.getIconWidth());
+        assertEquals(32, ((ScaledIcon) icon2x).getImage().getWidth(null));
+        assertEquals(Color.BLUE.getRGB(), centerPixel(icon2x));
+        assertEquals(Color.BLUE.getRGB(), centerPixel(rm.getIcon("squareIcon",
+                size, 1.25)));
+
+        checkBlack1x1Icon("scaled black1x1Icon", rm.getIcon("black1x1Icon",
+                new Dimension(1, 1)));
+        assertNull(rm.getIcon("noSuchIcon", size));
+        rm.putResource("missingIcon", "noSuchImage.png");
+        try {
+            rm.getIcon("missingIcon", size);
+            fail("expected LookupException");
+        } catch (ResourceMap.LookupException expected) {
+        }
+        rm.putResource("squareIcon", "black1x1.png");
+        assertEquals(0xFF000000, centerPixel(rm.getIcon("squareIcon", size,
+                1.0)));
+    }
+
+    public void testLazyIcons() throws Exception {
+        ImageCache.getInstance().clear();
+        ResourceMap rm = basicResourceMap();
+        rm.putResource("squareIcon", "square64.png");
+        assertFalse(rm.isLazyIcons());
+        rm.setLazyIcons(true);
+        long misses = ImageCache.getInstance().getMissCount();
+        Icon icon = rm.getIcon("squareIcon");
+        assertTrue(icon instanceof LazyIcon);
+        // creating a lazy icon doesn't count as a cache miss, loading it does
+        assertEquals(misses, ImageCache.getInstance().getMissCount());
+        assertEquals(64, icon.getIconWidth());
+        assertEquals(64, icon.getIconHeight());
+        assertFalse(((LazyIcon) icon).isLoaded());
+        assertEquals(Color.RED.getRGB(), centerPixel(icon));
+        assertTrue(((LazyIcon) icon).isLoaded());
+        assertEquals(misses + 1, ImageCache.getInstance().getMissCount());
+        assertSame(icon, rm.getIcon("squareIcon"));
+
+        // prefetching loads lazy icons
+        LazyIcon black = (LazyIcon) rm.getIcon("AbsoluteBlack1x1Icon");
+        assertFalse(black.isLoaded());
+        assertEquals(Collections.emptyList(), rm.prefetchImages(
+                "AbsoluteBlack1x1Icon").get());
+        assertTrue(black.isLoaded());
+        assertTrue(rm.getImageIcon("black1x1Icon") instanceof ImageIcon);
+
+        // images that are already cached aren't lazy
+        rm.putResource("squareIcon2", "square64.png");
+        assertTrue(rm.getIcon("squareIcon2") instanceof ImageIcon);
+        rm.setLazyIcons(false);
+        assertTrue(rm.getIcon("squareIcon") instanceof ImageIcon);
+    }
+
+    public void testAppendString() throws Exception {
+        ResourceMap rm = basicResourceMap();
+        assertEquals("Hello World", rm.getString("aHelloMessage", "World"));
+        assertEquals("Hello Moon", rm.getString("aHelloMessage", "Moon"));
+        StringBuilder sb = new StringBuilder("> ");
+        assertSame(sb, rm.appendString(sb, "aHelloMessage", "World"));
+        rm.appendString(sb, "noSuchResource", "World");
+        rm.appendString(sb, "aStringResource");
+        assertEquals("> Hello WorldaStringResource", sb.toString());
+        StringWriter out = new StringWriter();
+        rm.appendString((Appendable) out, "aHelloMessage", 123);
+        assertEquals("Hello 123", out.toString());
+
+        rm.putResource("aHelloMessage", "Goodbye %s");
+        assertEquals("Goodbye World", rm.getString("aHelloMessage", "World"));
+    }
+
+    public void testMessageFormat() throws Exception {
+        Locale oldLocale = Locale.getDefault();
+        Locale.setDefault(Locale.US);
+        try {
+            final ResourceMap rm = new ResourceMap(null, getClass()
+                    .getClassLoader(), "noSuchBundle");
+            rm.putResource("fileCount", "{0} contains {1,number,integer} files");
+            rm.putResource("badPattern", "{0");
+            assertEquals("docs contains 3 files", rm.format("fileCount",
+                    "docs", 3));
+            assertNull(rm.format("noSuchResource", "docs"));
+            StringBuilder sb = new StringBuilder("> ");
+            rm.appendFormat(sb, "fileCount", "src", 1234);
+            assertEquals("> src contains 1,234 files", sb.toString());
+            StringWriter out = new StringWriter();
+            rm.appendFormat((Appendable) out, "fileCount", "lib", 0);
+            assertEquals("lib contains 0 files", out.toString());
+            try {
+                rm.format("badPattern", "x");
+                fail("expected LookupException");
+            } catch (ResourceMap.LookupException expected) {
+            }
+
+            final int nThreads = 4;
+            final String[] errors = new String[nThreads];
+            Thread[] threads = new Thread[nThreads];
+            for (int t = 0; t < nThreads; t++) {
+                final int id = t;
+                threads[t] = new Thread() {
+                    @Override
+                    public void run() {
+                        for (int i = 0; (i < 500) && (errors[id] == null); i++) {
+                            String expected = "t" + id + " contains " + i
+                                    + " files";
+                            String actual = rm.format("fileCount", "t" + id, i);
+                            if (!expected.equals(actual)) {
+                                errors[id] = actual;
+                            }
+                        }
+                    }
+                };
+                threads[t].start();
+            }
+            for (Thread thread : threads) {
+                thread.join();
+            }
+            for (String error : errors) {
+                assertNull(error);
+            }
+        } finally {
+            Locale.setDefault(oldLocale);
+        }
+    }
+
     public void testResourceMapSubclass() {
         final HashMap<String, Object> myMap = new HashMap<String, Object>();
         myMap.put("hello", "hello");
@@ -793,4 +1710,72 @@ public class ResourceMapTest extends TestCase {
         assertEquals("German variable", "Hallo Welt", rm.getString("welcome"));
     }
 
+    public void testReinjectChangedComponents() {
+        Locale oldLocale = Locale.getDefault();
+        try {
+            Locale.setDefault(Locale.ENGLISH);
+            ResourceMap rm = localeChangeTestResourceMap();
+            JPanel panel = new JPanel();
+            JLabel greetingLabel = new JLabel();
+            JButton okButton = new JButton();
+            greetingLabel.setName("greetingLabel");
+            okButton.setName("okButton");
+            panel.add(greetingLabel);
+            panel.add(okButton);
+            rm.injectComponents(panel);
+            assertEquals("Hello", greetingLabel.getText());
+            assertEquals("OK", okButton.getText());
+            assertTrue(rm.getChangedKeys().isEmpty());
+
+            Locale.setDefault(Locale.GERMAN);
+            Set<String> changedKeys = rm.getChangedKeys();
+            assertTrue(changedKeys.contains("hello"));
+            assertTrue(changedKeys.contains("greeting"));
+            assertTrue(changedKeys.contains("greetingLabel.text"));
+            assertFalse(changedKeys.contains("okButton.text"));
+
+            // Unchanged resources aren't re-applied
+            okButton.setText("Not reinjected");
+            rm.reinjectComponents();
+            assertEquals("Hallo", greetingLabel.getText());
+            assertEquals("Not reinjected", okButton.getText());
+        } finally {
+            Locale.setDefault(oldLocale);
+        }
+    }
+
+    public void testReinjectAfterTwoLocaleChanges() {
+        Locale oldLocale = Locale.getDefault();
+        try {
+            Locale.setDefault(Locale.ENGLISH);
+            ResourceMap rm = localeChangeTestResourceMap();
+            JPanel panel = new JPanel();
+            JLabel greetingLabel = new JLabel();
+            JButton okButton = new JButton();
+            greetingLabel.setName("greetingLabel");
+            okButton.setName("okButton");
+            panel.add(greetingLabel);
+            panel.add(okButton);
+            rm.injectComponents(panel);
+            assertEquals("Hello", greetingLabel.getText());
+
+            Locale.setDefault(Locale.GERMAN);
+            assertEquals("Hallo", rm.getString("hello"));
+            Locale.setDefault(new Locale("de", "CH"));
+            // only okButton.text changed the last time
+            assertEquals(Collections.singleton("okButton.text"), rm.getChangedKeys());
+
+            rm.reinjectComponents();
+            assertEquals("Hallo", greetingLabel.getText());
+            assertEquals("Okay", okButton.getText());
+
+            // the changes have been applied
+            greetingLabel.setText("Not reinjected");
+            rm.reinjectComponents();
+            assertEquals("Not reinjected", greetingLabel.getText());
+        } finally {
+            Locale.setDefault(oldLocale);
+        }
+    }
+
 }